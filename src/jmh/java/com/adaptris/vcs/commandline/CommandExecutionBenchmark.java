@@ -0,0 +1,83 @@
+package com.adaptris.vcs.commandline;
+
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_EXECUTION;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adaptris.core.management.vcs.VcsException;
+
+/**
+ * The cost of running commands, using stub commands ({@code true}, {@code echo}) so that only our own overhead and
+ * process start up are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandExecutionBenchmark {
+
+  @Param({"process", "session"})
+  public String execution;
+
+  private CommandLineVCS vcs;
+  private File workingCopy;
+  private String[] files;
+
+  @Setup
+  public void setUp() {
+    Properties properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_EXECUTION, execution);
+    properties.put("vcs.command.line.noop", "true");
+    properties.put("vcs.command.line.echo", "echo ${vcs.workingcopy.url}");
+    properties.put("vcs.command.line.add.and.commit.0", "true ${vcs.local.files}");
+    properties.put("vcs.command.line.add.and.commit.1", "true ${vcs.commit.message}");
+    vcs = new CommandLineVCS(properties);
+    workingCopy = new File(System.getProperty("java.io.tmpdir"));
+    files = new String[1000];
+    for (int i = 0; i < files.length; i++) {
+      files[i] = "config/file-" + i + ".xml";
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    vcs.close();
+  }
+
+  @Benchmark
+  public String noop() throws VcsException {
+    return vcs.commandLineAction("vcs.command.line.noop", new HashMap<String, String>(), workingCopy);
+  }
+
+  @Benchmark
+  public String echo() throws VcsException {
+    Map<String, String> substitutions = new HashMap<>();
+    substitutions.put("vcs.workingcopy.url", workingCopy.getAbsolutePath());
+    return vcs.commandLineAction("vcs.command.line.echo", substitutions, workingCopy);
+  }
+
+  // 1000 files, batched into a single command.
+  @Benchmark
+  public void addAndCommit() throws VcsException {
+    vcs.addAndCommit(workingCopy, "commit message", files);
+  }
+}
@@ -0,0 +1,83 @@
+package com.adaptris.vcs.commandline;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adaptris.core.management.vcs.RevisionHistoryItem;
+
+/**
+ * Handling large amounts of synthetic output: collecting it, and parsing revision history out of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandOutputBenchmark {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CommandOutputBenchmark.class);
+  // Roughly what the pipe hands us at a time.
+  private static final int CHUNK = 4096;
+
+  @Param({"10000"})
+  public int lines;
+
+  private byte[] history;
+
+  @Setup
+  public void setUp() {
+    StringBuilder output = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      output.append(String.format("%040x", i)).append(" Commit number ").append(i).append(" with a reasonably long message\n");
+    }
+    history = output.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public byte[] collect() {
+    CommandOutput output = new CommandOutput(1024 * 1024, Collections.<CommandOutputListener>emptyList(), LOG);
+    write(output);
+    return output.toByteArray();
+  }
+
+  @Benchmark
+  public void collectWithListener(Blackhole blackhole) {
+    CommandOutput output = new CommandOutput(1024 * 1024,
+        Collections.<CommandOutputListener>singletonList((command, line) -> blackhole.consume(line)), LOG);
+    write(output);
+  }
+
+  @Benchmark
+  public List<RevisionHistoryItem> parseHistory() {
+    RevisionHistoryParser parser = new RevisionHistoryParser(0, "CommandLine", LOG);
+    CommandOutput output = new CommandOutput(1024 * 1024, Collections.<CommandOutputListener>emptyList(), parser, LOG);
+    write(output);
+    return parser.getHistory();
+  }
+
+  private void write(CommandOutput output) {
+    output.startCommand("git log");
+    for (int off = 0; off < history.length; off += CHUNK) {
+      output.write(history, off, Math.min(CHUNK, history.length - off));
+    }
+    output.endCommand();
+  }
+}
@@ -0,0 +1,96 @@
+package com.adaptris.vcs.commandline;
+
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_LOCAL_FILE_KEY;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.exec.CommandLine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adaptris.core.management.vcs.VcsException;
+
+/**
+ * Everything that happens before a process is started: finding the commands for an action, ordering the repeated
+ * keys and rendering a command line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandPreparationBenchmark {
+
+  private static final String COMMAND = "git -C ${vcs.workingcopy.url} commit -m ${vcs.commit.message} -- ${vcs.local.file}";
+
+  @Param({"10", "1000"})
+  public int properties;
+
+  @Param({"1000"})
+  public int files;
+
+  private CommandLineVCS vcs;
+  private CommandTemplate template;
+  private Map<String, String> substitutions;
+
+  @Setup
+  public void setUp() throws VcsException {
+    Properties commandProperties = new Properties();
+    for (int i = 0; i < properties; i++) {
+      commandProperties.put("vcs.command.line.other." + i, "echo " + i);
+    }
+    commandProperties.put("vcs.command.line.commit.0", COMMAND);
+    commandProperties.put("vcs.command.line.commit.1", "git push");
+    vcs = new CommandLineVCS(commandProperties);
+    vcs.getCommands("vcs.command.line.commit");
+    template = CommandTemplate.compile(COMMAND);
+    substitutions = new HashMap<>();
+    substitutions.put("vcs.workingcopy.url", "/opt/adapter/config");
+    substitutions.put("vcs.commit.message", "A commit message with spaces");
+    substitutions.put(VCS_LOCAL_FILE_KEY, "adapter.xml");
+    for (int i = 0; i < files; i++) {
+      substitutions.put(VCS_LOCAL_FILE_KEY + "." + i, "config/file-" + i + ".xml");
+    }
+  }
+
+  @Benchmark
+  public CommandSequence getCommandsCached() throws VcsException {
+    return vcs.getCommands("vcs.command.line.commit");
+  }
+
+  @Benchmark
+  public CommandSequence getCommandsUncached() throws VcsException {
+    vcs.invalidateCommands();
+    return vcs.getCommands("vcs.command.line.commit");
+  }
+
+  @Benchmark
+  public List<String> getRepeatedKeys() {
+    return vcs.getRepeatedKeys(substitutions, VCS_LOCAL_FILE_KEY);
+  }
+
+  @Benchmark
+  public String[] renderTemplate() {
+    return template.toCommandLine(substitutions).toStrings();
+  }
+
+  // What every command used to cost: parse the command and substitute on each execution.
+  @Benchmark
+  public String[] parseAndSubstitute() {
+    return CommandLine.parse(COMMAND, substitutions).toStrings();
+  }
+}
@@ -0,0 +1,185 @@
+package com.adaptris.vcs.commandline;
+
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_ASYNC_THREADS;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.adaptris.core.management.vcs.RevisionHistoryItem;
+import com.adaptris.core.management.vcs.VcsException;
+import com.adaptris.core.util.ManagedThreadFactory;
+
+/**
+ * Runs {@link CommandLineVCS} operations on an executor, returning a {@link CompletableFuture} rather than blocking
+ * the caller.
+ * <p>
+ * Failures complete the future exceptionally with the {@link VcsException}. Cancelling the future abandons the
+ * operation, killing any command that is running.
+ * </p>
+ */
+public class AsyncCommandLineVCS implements Closeable {
+
+  private static final String DEFAULT_THREADS = "4";
+
+  private final CommandLineVCS vcs;
+  private final ExecutorService executor;
+  private final boolean ownExecutor;
+
+  /**
+   * Use a pool of {@code vcs.command.line.async.threads} (default 4) threads, shut down by {@link #close()}.
+   */
+  public AsyncCommandLineVCS(CommandLineVCS vcs) throws VcsException {
+    this.vcs = vcs;
+    int threads = Math.max(1, Integer.parseInt(vcs.getCommandProperties().getProperty(VCS_COMMAND_LINE_ASYNC_THREADS, DEFAULT_THREADS)));
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ManagedThreadFactory(vcs.getImplementationName() + "-async"));
+    pool.allowCoreThreadTimeOut(true);
+    executor = pool;
+    ownExecutor = true;
+  }
+
+  /**
+   * Use the supplied executor, which remains the caller's responsibility.
+   */
+  public AsyncCommandLineVCS(CommandLineVCS vcs, ExecutorService executor) {
+    this.vcs = vcs;
+    this.executor = executor;
+    ownExecutor = false;
+  }
+
+  public CompletableFuture<String> testConnection(String remoteRepoUrl, File workingCopyUrl) {
+    return submit(() -> vcs.testConnection(remoteRepoUrl, workingCopyUrl));
+  }
+
+  public CompletableFuture<String> checkout(String remoteRepoUrl, File workingCopyUrl) {
+    return submit(() -> vcs.checkout(remoteRepoUrl, workingCopyUrl));
+  }
+
+  public CompletableFuture<String> checkout(String remoteRepoUrl, File workingCopyUrl, String revision) {
+    return submit(() -> vcs.checkout(remoteRepoUrl, workingCopyUrl, revision));
+  }
+
+  public CompletableFuture<String> update(File workingCopyUrl) {
+    return submit(() -> vcs.update(workingCopyUrl));
+  }
+
+  public CompletableFuture<String> update(File workingCopyUrl, String revision) {
+    return submit(() -> vcs.update(workingCopyUrl, revision));
+  }
+
+  public CompletableFuture<Void> commit(File workingCopyUrl, String commitMessage) {
+    return submit(() -> {
+      vcs.commit(workingCopyUrl, commitMessage);
+      return null;
+    });
+  }
+
+  public CompletableFuture<Void> recursiveAdd(File workingCopyUrl) {
+    return submit(() -> {
+      vcs.recursiveAdd(workingCopyUrl);
+      return null;
+    });
+  }
+
+  public CompletableFuture<Void> addAndCommit(File workingCopyUrl, String commitMessage, String... fileNames) {
+    return submit(() -> {
+      vcs.addAndCommit(workingCopyUrl, commitMessage, fileNames);
+      return null;
+    });
+  }
+
+  public CompletableFuture<String> getRemoteRevision(String remoteRepoUrl, File workingCopyUrl) {
+    return submit(() -> vcs.getRemoteRevision(remoteRepoUrl, workingCopyUrl));
+  }
+
+  public CompletableFuture<String> getRemoteRevision(String remoteRepoUrl, File workingCopyUrl, String revision) {
+    return submit(() -> vcs.getRemoteRevision(remoteRepoUrl, workingCopyUrl, revision));
+  }
+
+  public CompletableFuture<RemoteRevisions> getRemoteRevisions(Map<File, String> workingCopies) {
+    return submit(() -> vcs.getRemoteRevisions(workingCopies));
+  }
+
+  public CompletableFuture<String> getLocalRevision(File workingCopyUrl) {
+    return submit(() -> vcs.getLocalRevision(workingCopyUrl));
+  }
+
+  public CompletableFuture<List<RevisionHistoryItem>> getRemoteRevisionHistory(String remoteRepoUrl, File workingCopyUrl, int limit) {
+    return submit(() -> vcs.getRemoteRevisionHistory(remoteRepoUrl, workingCopyUrl, limit));
+  }
+
+  public CommandLineVCS getVcs() {
+    return vcs;
+  }
+
+  @Override
+  public void close() {
+    if (ownExecutor) {
+      executor.shutdownNow();
+    }
+  }
+
+  private <T> CompletableFuture<T> submit(Operation<T> operation) {
+    Task<T> task = new Task<>(operation);
+    task.submitted = executor.submit(task::run);
+    return task;
+  }
+
+  @FunctionalInterface
+  private interface Operation<T> {
+    T call() throws VcsException;
+  }
+
+  private class Task<T> extends CompletableFuture<T> {
+    private final Operation<T> operation;
+    private volatile Future<?> submitted;
+    private Thread worker;
+
+    Task(Operation<T> operation) {
+      this.operation = operation;
+    }
+
+    void run() {
+      synchronized (this) {
+        if (isDone()) {
+          return;
+        }
+        worker = Thread.currentThread();
+      }
+      try {
+        complete(operation.call());
+      } catch (Throwable e) {
+        completeExceptionally(e);
+      } finally {
+        synchronized (this) {
+          worker = null;
+        }
+      }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+        synchronized (this) {
+          if (worker != null) {
+            vcs.abort(worker);
+          }
+        }
+        Future<?> f = submitted;
+        if (f != null) {
+          f.cancel(true);
+        }
+      }
+      return cancelled;
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.File;
+
+/**
+ * Notified when a background update or a poll (see {@link CommandLineRVC}) has brought a working copy up to date.
+ */
+@FunctionalInterface
+public interface BackgroundUpdateListener {
+
+  /**
+   * @param workingCopy the working copy.
+   * @param previousRevision the revision in use before the update, {@code null} if unknown.
+   * @param revision the revision now available, {@code null} if unknown.
+   * @param swapped true if the updated copy is now in place; false if it is waiting in the staging copy and a
+   *          restart is needed to use it.
+   */
+  void workingCopyUpdated(File workingCopy, String previousRevision, String revision, boolean swapped);
+}
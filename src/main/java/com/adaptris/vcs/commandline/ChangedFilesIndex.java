@@ -0,0 +1,146 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A record of the content of every file in a working copy (the version control metadata aside), kept in a file so
+ * that what changed can be worked out by comparing the working copy with it.
+ * <p>
+ * A file is only hashed again if its size or modification time has changed since it was last indexed; even then it
+ * only counts as changed if its content has.
+ * </p>
+ */
+final class ChangedFilesIndex {
+
+  private static final String SEPARATOR = "\t";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private ChangedFilesIndex() {
+  }
+
+  /**
+   * Index the working copy again.
+   *
+   * @param excluded the name of the metadata directory at the top of the working copy, which isn't indexed.
+   * @return the paths (relative to the working copy, separated by {@code /}) added, changed or removed since the last
+   *         time; null if there was no index to compare with.
+   */
+  static synchronized Set<String> update(File workingCopy, File indexFile, String excluded) throws IOException {
+    Map<String, Entry> previous = read(indexFile);
+    Map<String, Entry> current = new HashMap<>();
+    Path root = workingCopy.toPath();
+    Path metadata = root.resolve(excluded);
+    try (Stream<Path> paths = Files.walk(root)) {
+      for (Path path : paths.filter(p -> !p.startsWith(metadata) && Files.isRegularFile(p)).collect(Collectors.toList())) {
+        String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+        long size = Files.size(path);
+        long modified = Files.getLastModifiedTime(path).toMillis();
+        Entry entry = previous != null ? previous.get(name) : null;
+        current.put(name, entry != null && entry.size == size && entry.modified == modified ? entry
+            : new Entry(hash(path), size, modified));
+      }
+    }
+    write(indexFile, current);
+    if (previous == null) {
+      return null;
+    }
+    Set<String> changed = new TreeSet<>();
+    for (Map.Entry<String, Entry> entry : current.entrySet()) {
+      Entry before = previous.get(entry.getKey());
+      if (before == null || !before.hash.equals(entry.getValue().hash)) {
+        changed.add(entry.getKey());
+      }
+    }
+    for (String name : previous.keySet()) {
+      if (!current.containsKey(name)) {
+        changed.add(name);
+      }
+    }
+    return changed;
+  }
+
+  private static Map<String, Entry> read(File indexFile) throws IOException {
+    if (!indexFile.isFile()) {
+      return null;
+    }
+    Map<String, Entry> entries = new HashMap<>();
+    try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        String[] fields = line.split(SEPARATOR, 4);
+        if (fields.length == 4) {
+          entries.put(fields[3], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+        }
+      }
+    } catch (NumberFormatException e) {
+      // Not one of ours; start again.
+      return null;
+    }
+    return entries;
+  }
+
+  private static void write(File indexFile, Map<String, Entry> entries) throws IOException {
+    File directory = indexFile.getAbsoluteFile().getParentFile();
+    directory.mkdirs();
+    Path temporary = Files.createTempFile(directory.toPath(), indexFile.getName(), ".tmp");
+    try {
+      try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+          Entry value = entry.getValue();
+          writer.write(value.hash + SEPARATOR + value.size + SEPARATOR + value.modified + SEPARATOR + entry.getKey());
+          writer.newLine();
+        }
+      }
+      Files.move(temporary, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  private static String hash(Path path) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream in = Files.newInputStream(path)) {
+      for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+        digest.update(buffer, 0, n);
+      }
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  private static final class Entry {
+    private final String hash;
+    private final long size;
+    private final long modified;
+
+    Entry(String hash, long size, long modified) {
+      this.hash = hash;
+      this.size = size;
+      this.modified = modified;
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.File;
+import java.util.Set;
+
+/**
+ * Notified of the files an update (see {@link CommandLineRVC}) changed, when {@code vcs.changed.files} is set; so
+ * that only the configuration that depends on them needs to be reloaded.
+ */
+@FunctionalInterface
+public interface ChangedFilesListener {
+
+  /**
+   * @param workingCopy the working copy.
+   * @param changedFiles the files added, changed or removed, relative to the working copy and separated by
+   *          {@code /}; {@code null} if they couldn't be worked out, in which case anything may have changed.
+   */
+  void filesChanged(File workingCopy, Set<String> changedFiles);
+}
@@ -0,0 +1,200 @@
+package com.adaptris.vcs.commandline;
+
+import static com.adaptris.core.management.vcs.VcsConstants.VCS_LOCAL_URL_KEY;
+import static com.adaptris.core.management.vcs.VcsConstants.VCS_REMOTE_REPO_URL_KEY;
+import static com.adaptris.core.management.vcs.VcsConstants.VCS_REVISION_KEY;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CHECKOUT_DEPTH;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CHECKOUT_FILTER;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CHECKOUT_PROFILE;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CHECKOUT_SINGLE_BRANCH;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CHECKOUT_SPARSE_PATHS;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_CHANGED_FILES;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_CHECKOUT;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_STAGING;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_UPDATE;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CURRENT_REVISION_KEY;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_PREVIOUS_REVISION_KEY;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_STAGING_URL_KEY;
+import static org.apache.commons.lang3.StringUtils.isEmpty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import com.adaptris.core.management.vcs.VcsException;
+
+/**
+ * Built in checkout, update, staging and changed files commands, so that shallow, single branch and sparse checkouts don't
+ * need hand written command sequences.
+ * <p>
+ * Only the {@code git} profile exists; commands that are configured explicitly always take precedence.
+ * </p>
+ */
+final class CheckoutProfile {
+
+  static final String GIT = "git";
+
+  private CheckoutProfile() {
+  }
+
+  /**
+   * @return the properties, with the profile's commands added if {@code vcs.checkout.profile} is set.
+   */
+  static Properties apply(Properties properties) throws VcsException {
+    String profile = properties.getProperty(VCS_CHECKOUT_PROFILE);
+    if (isEmpty(profile)) {
+      return properties;
+    }
+    if (!GIT.equalsIgnoreCase(profile.trim())) {
+      throw new VcsException(String.format("Unknown checkout profile [%s]", profile));
+    }
+    Properties result = new Properties();
+    for (String key : properties.stringPropertyNames()) {
+      result.setProperty(key, properties.getProperty(key));
+    }
+    boolean revision = hasRevision(properties);
+    if (CommandSequence.compile(properties, VCS_COMMAND_LINE_CHECKOUT).size() == 0) {
+      put(result, VCS_COMMAND_LINE_CHECKOUT, checkout(properties, revision));
+    }
+    if (CommandSequence.compile(properties, VCS_COMMAND_LINE_UPDATE).size() == 0) {
+      put(result, VCS_COMMAND_LINE_UPDATE, update(properties, revision));
+    }
+    if (CommandSequence.compile(properties, VCS_COMMAND_LINE_STAGING).size() == 0) {
+      put(result, VCS_COMMAND_LINE_STAGING, staging(properties));
+    }
+    if (CommandSequence.compile(properties, VCS_COMMAND_LINE_CHANGED_FILES).size() == 0) {
+      // Without rename detection a moved file is listed under both names.
+      put(result, VCS_COMMAND_LINE_CHANGED_FILES, Collections.singletonList("git diff --name-only --no-renames ${"
+          + VCS_PREVIOUS_REVISION_KEY + "} ${" + VCS_CURRENT_REVISION_KEY + "}"));
+    }
+    return result;
+  }
+
+  private static List<String> checkout(Properties properties, boolean revision) throws VcsException {
+    List<String> sparsePaths = sparsePaths(properties);
+    StringBuilder clone = new StringBuilder("git clone");
+    if (!sparsePaths.isEmpty()) {
+      clone.append(" --no-checkout");
+    }
+    clone.append(depth(properties));
+    if (Boolean.parseBoolean(properties.getProperty(VCS_CHECKOUT_SINGLE_BRANCH, "false"))) {
+      clone.append(" --single-branch");
+    }
+    String filter = properties.getProperty(VCS_CHECKOUT_FILTER);
+    if (!isEmpty(filter)) {
+      clone.append(" --filter=").append(filter.trim());
+    }
+    if (revision) {
+      clone.append(" --branch ${" + VCS_REVISION_KEY + "}");
+    }
+    clone.append(" ${" + VCS_REMOTE_REPO_URL_KEY + "} ${" + VCS_LOCAL_URL_KEY + "}");
+    List<String> commands = new ArrayList<>();
+    commands.add(clone.toString());
+    commands.addAll(sparseCheckout("git", sparsePaths));
+    return commands;
+  }
+
+  // A local clone hard links the objects rather than copying them; it then fetches from the remote, not the working copy.
+  private static List<String> staging(Properties properties) throws VcsException {
+    List<String> sparsePaths = sparsePaths(properties);
+    String staging = "${" + VCS_STAGING_URL_KEY + "}";
+    List<String> commands = new ArrayList<>();
+    commands.add("git clone --local" + (sparsePaths.isEmpty() ? "" : " --no-checkout") + " ${" + VCS_LOCAL_URL_KEY + "} "
+        + staging);
+    commands.add("git -C " + staging + " remote set-url origin ${" + VCS_REMOTE_REPO_URL_KEY + "}");
+    commands.addAll(sparseCheckout("git -C " + staging, sparsePaths));
+    return commands;
+  }
+
+  private static List<String> sparseCheckout(String git, List<String> sparsePaths) throws VcsException {
+    List<String> commands = new ArrayList<>();
+    if (!sparsePaths.isEmpty()) {
+      StringBuilder sparse = new StringBuilder(git + " sparse-checkout set --no-cone");
+      for (String path : sparsePaths) {
+        sparse.append(' ').append(quote(path));
+      }
+      commands.add(sparse.toString());
+      commands.add(git + " read-tree -mu HEAD");
+    }
+    return commands;
+  }
+
+  // A shallow history can't be merged into, so fetch and move to what was fetched.
+  private static List<String> update(Properties properties, boolean revision) throws VcsException {
+    List<String> commands = new ArrayList<>();
+    if (revision) {
+      commands.add("git fetch" + depth(properties) + " origin ${" + VCS_REVISION_KEY + "}");
+      commands.add("git reset --hard FETCH_HEAD");
+    } else {
+      commands.add("git fetch" + depth(properties) + " origin");
+      commands.add("git reset --hard @{upstream}");
+    }
+    return commands;
+  }
+
+  private static String depth(Properties properties) throws VcsException {
+    String value = properties.getProperty(VCS_CHECKOUT_DEPTH, "0").trim();
+    int depth;
+    try {
+      depth = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new VcsException(String.format("[%s] must be a number of commits, not [%s]", VCS_CHECKOUT_DEPTH, value), e);
+    }
+    if (depth < 0) {
+      throw new VcsException(String.format("[%s] can't be negative [%s]", VCS_CHECKOUT_DEPTH, value));
+    }
+    return depth > 0 ? " --depth " + depth : "";
+  }
+
+  // Quoted the way CommandTemplate expects, so that each path stays a single argument.
+  private static String quote(String path) throws VcsException {
+    if (!path.contains(" ") && !path.contains("\"") && !path.contains("'")) {
+      return path;
+    }
+    if (!path.contains("\"")) {
+      return "\"" + path + "\"";
+    }
+    if (!path.contains("'")) {
+      return "'" + path + "'";
+    }
+    throw new VcsException(String.format("[%s] can't contain both single and double quotes [%s]", VCS_CHECKOUT_SPARSE_PATHS, path));
+  }
+
+  private static List<String> sparsePaths(Properties properties) {
+    List<String> paths = new ArrayList<>();
+    for (String path : properties.getProperty(VCS_CHECKOUT_SPARSE_PATHS, "").split(",")) {
+      if (!path.trim().isEmpty()) {
+        paths.add(path.trim());
+      }
+    }
+    return paths;
+  }
+
+  // The commands are shared by every working copy, so either they all have a revision or none do.
+  private static boolean hasRevision(Properties properties) throws VcsException {
+    int with = 0;
+    int without = 0;
+    for (String key : properties.stringPropertyNames()) {
+      if (key.equals(VCS_LOCAL_URL_KEY) || key.startsWith(VCS_LOCAL_URL_KEY + ".")) {
+        String suffix = key.substring(VCS_LOCAL_URL_KEY.length());
+        if (isEmpty(properties.getProperty(VCS_REVISION_KEY + suffix))) {
+          without++;
+        } else {
+          with++;
+        }
+      }
+    }
+    if (with > 0 && without > 0) {
+      throw new VcsException(String.format("[%s] needs [%s] set for every working copy, or for none", VCS_CHECKOUT_PROFILE,
+          VCS_REVISION_KEY));
+    }
+    return with > 0;
+  }
+
+  private static void put(Properties properties, String filterKey, List<String> commands) {
+    for (int i = 0; i < commands.size(); i++) {
+      properties.setProperty(filterKey + "." + i, commands.get(i));
+    }
+  }
+}
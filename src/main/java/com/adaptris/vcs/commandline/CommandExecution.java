@@ -0,0 +1,100 @@
+package com.adaptris.vcs.commandline;
+
+/**
+ * What happened when a single command was executed.
+ */
+public final class CommandExecution {
+
+  private final String action;
+  private final String step;
+  private final String command;
+  private final long spawnLatencyMillis;
+  private final long wallTimeMillis;
+  private final int exitValue;
+  private final long outputBytes;
+  private final boolean timedOut;
+  private final boolean aborted;
+  private final boolean succeeded;
+
+  CommandExecution(String action, String step, String command, long spawnLatencyMillis, long wallTimeMillis,
+                   int exitValue, long outputBytes, boolean timedOut, boolean aborted, boolean succeeded) {
+    this.action = action;
+    this.step = step;
+    this.command = command;
+    this.spawnLatencyMillis = spawnLatencyMillis;
+    this.wallTimeMillis = wallTimeMillis;
+    this.exitValue = exitValue;
+    this.outputBytes = outputBytes;
+    this.timedOut = timedOut;
+    this.aborted = aborted;
+    this.succeeded = succeeded;
+  }
+
+  /**
+   * The action, e.g. {@code vcs.command.line.checkout}.
+   */
+  public String getAction() {
+    return action;
+  }
+
+  /**
+   * The key of the step within the action, e.g. {@code vcs.command.line.checkout.2}.
+   */
+  public String getStep() {
+    return step;
+  }
+
+  /**
+   * The command as configured, before any substitution.
+   */
+  public String getCommand() {
+    return command;
+  }
+
+  /**
+   * How long it took for the process to start, or {@code -1} if it never did.
+   */
+  public long getSpawnLatencyMillis() {
+    return spawnLatencyMillis;
+  }
+
+  public long getWallTimeMillis() {
+    return wallTimeMillis;
+  }
+
+  /**
+   * The exit value, or {@code -1} if there isn't one (e.g. the process could not be started).
+   */
+  public int getExitValue() {
+    return exitValue;
+  }
+
+  public long getOutputBytes() {
+    return outputBytes;
+  }
+
+  /**
+   * True if the command was killed for running past its timeout (or the action's time budget).
+   */
+  public boolean isTimedOut() {
+    return timedOut;
+  }
+
+  /**
+   * True if the command was killed because it was no longer wanted: cancelled, beaten by a hedged attempt, or
+   * abandoned because another member of its group failed.
+   */
+  public boolean isAborted() {
+    return aborted;
+  }
+
+  public boolean isSucceeded() {
+    return succeeded;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("[%s] exit=%d wall=%dms spawn=%dms output=%d bytes%s", step, exitValue, wallTimeMillis,
+        spawnLatencyMillis, outputBytes, timedOut ? " (timed out)" : aborted ? " (aborted)" : "");
+  }
+}
@@ -4,13 +4,45 @@ import com.adaptris.core.management.BootstrapProperties;
 import com.adaptris.core.management.vcs.RuntimeVersionControl;
 import com.adaptris.core.management.vcs.VcsException;
 import com.adaptris.core.management.vcs.VersionControlSystem;
+import com.adaptris.core.util.ManagedThreadFactory;
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.adaptris.core.management.vcs.VcsConstants.*;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.CHANGED_FILES_COMMAND;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.CHANGED_FILES_INDEX;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_BACKGROUND_UPDATE;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_BACKGROUND_UPDATE_SWAP;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CHANGED_FILES;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CONDITIONAL_UPDATE;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_POLL_BACKOFF_MAX;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_POLL_INTERVAL;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_POLL_JITTER;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_SNAPSHOT_FILE;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_WORKING_COPY_PARALLELISM;
 import static org.apache.commons.lang3.StringUtils.isEmpty;
 
 public class CommandLineRVC implements RuntimeVersionControl {
@@ -18,10 +50,25 @@ public class CommandLineRVC implements RuntimeVersionControl {
   protected transient Logger log = LoggerFactory.getLogger(this.getClass());
 
   private static final String VCS_NAME = "CommandLine";
+  private static final String DEFAULT_PARALLELISM = "4";
+  private static final String STAGING_SUFFIX = ".staging";
+  private static final String PREVIOUS_SUFFIX = ".previous";
+  private static final String CHANGES_SUFFIX = ".changes";
+  private static final String GIT_METADATA = ".git";
 
   private BootstrapProperties bootstrapProperties;
 
   private transient VersionControlSystem api;
+  private final transient List<BackgroundUpdateListener> backgroundUpdateListeners = new CopyOnWriteArrayList<>();
+  private final transient List<CompletableFuture<Boolean>> backgroundUpdates = new CopyOnWriteArrayList<>();
+  private final transient Map<File, CompletableFuture<Void>> snapshotWrites = new ConcurrentHashMap<>();
+  private final transient List<ChangedFilesListener> changedFilesListeners = new CopyOnWriteArrayList<>();
+  private final transient Map<String, Set<String>> changedFiles = new ConcurrentHashMap<>();
+  // How long the last update of each working copy took, to say what skipping one saves.
+  private final transient Map<String, Long> updateTimes = new ConcurrentHashMap<>();
+  private final transient AtomicLong updatesSkipped = new AtomicLong();
+  private final transient AtomicLong updateTimeSaved = new AtomicLong();
+  private transient UpdatePoller poller;
 
   public CommandLineRVC(){
 
@@ -39,24 +86,524 @@ public class CommandLineRVC implements RuntimeVersionControl {
 
   @Override
   public void update() throws VcsException {
-    CommandLineVCSConfig config = new CommandLineVCSConfig(getBootstrapProperties());
+    forEachWorkingCopy(this::update);
+    startPolling();
+  }
+
+  @Override
+  public void checkout() throws VcsException {
+    forEachWorkingCopy(config -> {
+      commandLineCheckout(config);
+      commandLineUpdate(config);
+    });
+    startPolling();
+  }
+
+  private synchronized void startPolling() {
+    long interval = Long.parseLong(getBootstrapProperties().getProperty(VCS_POLL_INTERVAL, "0"));
+    if (interval <= 0 || poller != null) {
+      return;
+    }
+    long jitter = Long.parseLong(getBootstrapProperties().getProperty(VCS_POLL_JITTER, String.valueOf(interval / 10)));
+    long maxBackoff = Long.parseLong(getBootstrapProperties().getProperty(VCS_POLL_BACKOFF_MAX, String.valueOf(interval * 10)));
+    log.info("{}: Polling for changes every {} ms (+ up to {} ms)", getImplementationName(), interval, jitter);
+    poller = new UpdatePoller(() -> forEachWorkingCopy(this::poll), interval, jitter, maxBackoff, getImplementationName(), log);
+    poller.start();
+  }
+
+  /**
+   * Stop polling for changes, if {@code vcs.poll.interval} started it.
+   */
+  public synchronized void stopPolling() {
+    if (poller != null) {
+      poller.close();
+      poller = null;
+    }
+  }
+
+  // Only update when the remote has moved on.
+  private void poll(CommandLineVCSConfig config) throws VcsException {
+    if (!config.isConfigured() || !config.getLocalRepo().exists()) {
+      return;
+    }
+    File workingCopy = config.getLocalRepo();
+    String local = firstWord(api().getLocalRevision(workingCopy));
+    String remote = firstWord(remoteRevision(config));
+    if (!local.isEmpty() && local.equals(remote)) {
+      log.trace("{}: [{}] is at remote revision [{}]", getImplementationName(), CommandLineVCSUtils.fullpath(workingCopy), remote);
+      return;
+    }
+    // Without the swap the working copy stays where it is until a restart; what matters is what's been staged.
+    if (isBackgroundUpdate() && !isBackgroundSwap() && !remote.isEmpty() && remote.equals(localRevision(staging(workingCopy)))) {
+      log.trace("{}: Remote revision [{}] is already staged for [{}]", getImplementationName(), remote,
+          CommandLineVCSUtils.fullpath(workingCopy));
+      return;
+    }
+    log.info("{}: [{}] is at revision [{}], remote is at [{}], updating.", getImplementationName(),
+        CommandLineVCSUtils.fullpath(workingCopy), local, remote);
+    if (isBackgroundUpdate()) {
+      try {
+        backgroundUpdate(config, workingCopy, staging(workingCopy));
+      } catch (IOException e) {
+        throw new VcsException(e);
+      }
+      return;
+    }
+    String previous = beforeUpdate(workingCopy, true);
+    commandLineUpdate(config);
+    afterUpdate(workingCopy, previous);
+    String updated = firstWord(api().getLocalRevision(workingCopy));
+    if (!updated.equals(local)) {
+      fireWorkingCopyUpdated(workingCopy, local, updated, true);
+    }
+  }
+
+  private void update(CommandLineVCSConfig config) throws VcsException {
     if (!config.isConfigured()) {
       log.info("{}: [{}] not configured skipping repository update.", getImplementationName(),  VCS_LOCAL_URL_KEY);
       return;
     }
     log.info("{}: Checking local repository [{}] ", getImplementationName(), CommandLineVCSUtils.fullpath(config.getLocalRepo()));
-    if (!config.getLocalRepo().exists()) {
-      log.info("{}: [{}] does not exist, performing fresh checkout.", getImplementationName(),  CommandLineVCSUtils.fullpath(config.getLocalRepo()));
-      commandLineCheckout(config);
+    recoverSwap(config.getLocalRepo());
+    boolean existed = config.getLocalRepo().exists();
+    if (!existed) {
+      if (!restoreSnapshot(config)) {
+        log.info("{}: [{}] does not exist, performing fresh checkout.", getImplementationName(),  CommandLineVCSUtils.fullpath(config.getLocalRepo()));
+        commandLineCheckout(config);
+      }
+    } else if (isBackgroundUpdate()) {
+      startBackgroundUpdate(config);
+      return;
+    } else if (isConditionalUpdate() && isUpToDate(config)) {
+      return;
     }
+    String previous = beforeUpdate(config.getLocalRepo(), existed);
+    long start = System.currentTimeMillis();
     commandLineUpdate(config);
+    long elapsed = System.currentTimeMillis() - start;
+    updateTimes.put(CommandLineVCSUtils.fullpath(config.getLocalRepo()), elapsed);
+    log.debug("{}: Updated [{}] in {} ms", getImplementationName(), CommandLineVCSUtils.fullpath(config.getLocalRepo()), elapsed);
+    afterUpdate(config.getLocalRepo(), previous);
   }
 
-  @Override
-  public void checkout() throws VcsException {
-    CommandLineVCSConfig config = new CommandLineVCSConfig(getBootstrapProperties());
-    commandLineCheckout(config);
-    commandLineUpdate(config);
+  private boolean isBackgroundUpdate() {
+    return Boolean.parseBoolean(getBootstrapProperties().getProperty(VCS_BACKGROUND_UPDATE, "false"));
+  }
+
+  private boolean isBackgroundSwap() {
+    return Boolean.parseBoolean(getBootstrapProperties().getProperty(VCS_BACKGROUND_UPDATE_SWAP, "false"));
+  }
+
+  // Start from the working copy we've got, and update a staging copy of it in the background.
+  private void startBackgroundUpdate(CommandLineVCSConfig config) throws VcsException {
+    File workingCopy = config.getLocalRepo();
+    File staging = staging(workingCopy);
+    CompletableFuture<Boolean> result = new CompletableFuture<>();
+    backgroundUpdates.add(result);
+    log.info("{}: Using [{}] as is, updating [{}] in the background.", getImplementationName(),
+        CommandLineVCSUtils.fullpath(workingCopy), CommandLineVCSUtils.fullpath(staging));
+    Thread thread = new Thread(() -> {
+      try {
+        result.complete(backgroundUpdate(config, workingCopy, staging));
+      } catch (Exception e) {
+        log.warn("{}: Background update of [{}] failed, carrying on with the current working copy.", getImplementationName(),
+            CommandLineVCSUtils.fullpath(workingCopy), e);
+        result.completeExceptionally(e);
+      }
+    }, getImplementationName() + "-background-update");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private boolean backgroundUpdate(CommandLineVCSConfig config, File workingCopy, File staging) throws VcsException, IOException {
+    long start = System.currentTimeMillis();
+    beforeUpdate(workingCopy, true);
+    refreshMirror(config);
+    if (!staging.exists()) {
+      createStaging(config, workingCopy, staging);
+    }
+    if (isEmpty(config.getRevision())) {
+      api().update(staging);
+    } else {
+      api().update(staging, config.getRevision());
+    }
+    if (api() instanceof CommandLineVCS) {
+      ((CommandLineVCS) api()).validate(staging);
+    }
+    String previous = localRevision(workingCopy);
+    String updated = localRevision(staging);
+    if (updated != null && updated.equals(previous)) {
+      log.info("{}: [{}] is already at revision [{}] ({} ms).", getImplementationName(), CommandLineVCSUtils.fullpath(workingCopy),
+          updated, System.currentTimeMillis() - start);
+      return false;
+    }
+    boolean swapped = isBackgroundSwap() && swap(workingCopy, staging);
+    if (swapped) {
+      log.info("{}: [{}] updated to revision [{}] ({} ms).", getImplementationName(), CommandLineVCSUtils.fullpath(workingCopy),
+          updated, System.currentTimeMillis() - start);
+    } else {
+      log.info("{}: Revision [{}] is ready in [{}], restart to use it ({} ms).", getImplementationName(), updated,
+          CommandLineVCSUtils.fullpath(staging), System.currentTimeMillis() - start);
+    }
+    if (swapped) {
+      writeSnapshot(config, workingCopy);
+      afterUpdate(workingCopy, previous);
+    }
+    fireWorkingCopyUpdated(workingCopy, previous, updated, swapped);
+    return true;
+  }
+
+  private void fireWorkingCopyUpdated(File workingCopy, String previous, String updated, boolean swapped) {
+    for (BackgroundUpdateListener listener : backgroundUpdateListeners) {
+      try {
+        listener.workingCopyUpdated(workingCopy, previous, updated, swapped);
+      } catch (RuntimeException e) {
+        log.warn("Background update listener [{}] failed", listener, e);
+      }
+    }
+  }
+
+  private String changedFilesMode() {
+    String mode = getBootstrapProperties().getProperty(VCS_CHANGED_FILES);
+    return isEmpty(mode) ? null : mode.trim().toLowerCase();
+  }
+
+  /**
+   * Get ready to work out what the update changes.
+   *
+   * @param existed false if the working copy has only just been checked out or restored, in which case there's
+   *          nothing to compare it with.
+   * @return the revision before the update, if it's needed.
+   */
+  private String beforeUpdate(File workingCopy, boolean existed) {
+    String mode = changedFilesMode();
+    if (mode == null) {
+      return null;
+    }
+    File index = changesIndex(workingCopy);
+    if (!existed) {
+      FileUtils.deleteQuietly(index);
+      return null;
+    }
+    if (CHANGED_FILES_INDEX.equals(mode) && !index.exists()) {
+      changedFiles(mode, workingCopy, null);
+    }
+    return localRevision(workingCopy);
+  }
+
+  private void afterUpdate(File workingCopy, String previous) {
+    String mode = changedFilesMode();
+    if (mode == null) {
+      return;
+    }
+    Set<String> changed = changedFiles(mode, workingCopy, previous);
+    String path = CommandLineVCSUtils.fullpath(workingCopy);
+    if (changed != null) {
+      changedFiles.put(path, changed);
+      log.info("{}: {} files changed in [{}]", getImplementationName(), changed.size(), path);
+    } else {
+      changedFiles.remove(path);
+      log.info("{}: Can't tell which files changed in [{}]", getImplementationName(), path);
+    }
+    for (ChangedFilesListener listener : changedFilesListeners) {
+      try {
+        listener.filesChanged(workingCopy, changed);
+      } catch (RuntimeException e) {
+        log.warn("Changed files listener [{}] failed", listener, e);
+      }
+    }
+  }
+
+  private Set<String> changedFiles(String mode, File workingCopy, String previous) {
+    try {
+      if (CHANGED_FILES_INDEX.equals(mode)) {
+        return ChangedFilesIndex.update(workingCopy, changesIndex(workingCopy), GIT_METADATA);
+      }
+      if (!CHANGED_FILES_COMMAND.equals(mode) || !(api() instanceof CommandLineVCS)) {
+        log.warn("{}: [{}={}] isn't supported", getImplementationName(), VCS_CHANGED_FILES, mode);
+        return null;
+      }
+      String updated = localRevision(workingCopy);
+      if (previous == null || updated == null) {
+        return null;
+      }
+      return updated.equals(previous) ? new TreeSet<>() : ((CommandLineVCS) api()).getChangedFiles(workingCopy, previous, updated);
+    } catch (VcsException | IOException e) {
+      log.warn("{}: Failed to work out which files changed in [{}]", getImplementationName(),
+          CommandLineVCSUtils.fullpath(workingCopy), e);
+      return null;
+    }
+  }
+
+  private static File changesIndex(File workingCopy) {
+    return new File(workingCopy.getParentFile(), workingCopy.getName() + CHANGES_SUFFIX);
+  }
+
+  private static File staging(File workingCopy) {
+    return new File(workingCopy.getParentFile(), workingCopy.getName() + STAGING_SUFFIX);
+  }
+
+  // The previous working copy becomes the staging copy for next time.
+  // The working copy is missing between the two renames; see recoverSwap.
+  private boolean swap(File workingCopy, File staging) throws VcsException {
+    Path current = workingCopy.toPath();
+    Path previous = previous(workingCopy).toPath();
+    WorkingCopyLocks.Lease lease = lockWorkingCopy(workingCopy, false);
+    try {
+      FileUtils.deleteDirectory(previous.toFile());
+      Files.move(current, previous, StandardCopyOption.ATOMIC_MOVE);
+      try {
+        Files.move(staging.toPath(), current, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        Files.move(previous, current, StandardCopyOption.ATOMIC_MOVE);
+        throw e;
+      }
+      Files.move(previous, staging.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("{}: Failed to swap [{}] into place.", getImplementationName(), CommandLineVCSUtils.fullpath(staging), e);
+      return false;
+    } finally {
+      if (lease != null) {
+        lease.close();
+      }
+    }
+    if (api() instanceof CommandLineVCS) {
+      ((CommandLineVCS) api()).invalidateRevisions(workingCopy);
+    }
+    return true;
+  }
+
+  // Updates fetch from the remote as usual, but with the mirror up to date there's little left to transfer.
+  private void refreshMirror(CommandLineVCSConfig config) {
+    if (isEmpty(config.getRemoteRepo())) {
+      return;
+    }
+    try {
+      if (api() instanceof CommandLineVCS) {
+        ((CommandLineVCS) api()).refreshMirror(config.getRemoteRepo());
+      }
+    } catch (VcsException e) {
+      log.warn("{}: Failed to refresh the mirror of [{}], updating regardless.", getImplementationName(), config.getRemoteRepo(), e);
+    }
+  }
+
+  // Prefer the vcs.command.line.staging commands (e.g. git clone --local); otherwise copy, with the working copy
+  // locked for reading so that nothing changes it half way through.
+  private void createStaging(CommandLineVCSConfig config, File workingCopy, File staging) throws VcsException, IOException {
+    try {
+      if (api() instanceof CommandLineVCS
+          && ((CommandLineVCS) api()).createStaging(config.getRemoteRepo(), workingCopy, staging)) {
+        return;
+      }
+      WorkingCopyLocks.Lease lease = lockWorkingCopy(workingCopy, true);
+      try {
+        FileUtils.copyDirectory(workingCopy, staging);
+      } finally {
+        if (lease != null) {
+          lease.close();
+        }
+      }
+    } catch (VcsException | IOException | RuntimeException e) {
+      FileUtils.deleteQuietly(staging);
+      throw e;
+    }
+  }
+
+  // If a swap was interrupted between its two renames (e.g. the JVM died), put the previous working copy back.
+  private void recoverSwap(File workingCopy) {
+    File previous = previous(workingCopy);
+    if (workingCopy.exists() || !previous.isDirectory()) {
+      return;
+    }
+    log.warn("{}: [{}] is missing, restoring it from [{}].", getImplementationName(), CommandLineVCSUtils.fullpath(workingCopy),
+        CommandLineVCSUtils.fullpath(previous));
+    try {
+      Files.move(previous.toPath(), workingCopy.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("{}: Failed to restore [{}].", getImplementationName(), CommandLineVCSUtils.fullpath(workingCopy), e);
+    }
+  }
+
+  private static File previous(File workingCopy) {
+    return new File(workingCopy.getParentFile(), workingCopy.getName() + PREVIOUS_SUFFIX);
+  }
+
+  private WorkingCopyLocks.Lease lockWorkingCopy(File workingCopy, boolean shared) throws VcsException {
+    return api() instanceof CommandLineVCS ? ((CommandLineVCS) api()).lockWorkingCopy(workingCopy, shared) : WorkingCopyLocks.NONE;
+  }
+
+  private String localRevision(File workingCopy) {
+    try {
+      String revision = firstWord(api().getLocalRevision(workingCopy));
+      return revision.isEmpty() ? null : revision;
+    } catch (VcsException e) {
+      log.trace("{}: No local revision for [{}]", getImplementationName(), CommandLineVCSUtils.fullpath(workingCopy), e);
+      return null;
+    }
+  }
+
+  public void addBackgroundUpdateListener(BackgroundUpdateListener listener) {
+    backgroundUpdateListeners.add(listener);
+  }
+
+  public void removeBackgroundUpdateListener(BackgroundUpdateListener listener) {
+    backgroundUpdateListeners.remove(listener);
+  }
+
+  public void addChangedFilesListener(ChangedFilesListener listener) {
+    changedFilesListeners.add(listener);
+  }
+
+  public void removeChangedFilesListener(ChangedFilesListener listener) {
+    changedFilesListeners.remove(listener);
+  }
+
+  /**
+   * The files the last update of the working copy changed (see {@link ChangedFilesListener}).
+   *
+   * @return null if {@code vcs.changed.files} isn't set, or the files couldn't be worked out.
+   */
+  public Set<String> getChangedFiles(File workingCopy) {
+    return changedFiles.get(CommandLineVCSUtils.fullpath(workingCopy));
+  }
+
+  /**
+   * The number of updates {@code vcs.conditional.update} has skipped because the working copy was already current.
+   */
+  public long getUpdatesSkipped() {
+    return updatesSkipped.get();
+  }
+
+  /**
+   * Roughly how many ms skipping updates has saved: for each one skipped, how long the last update of the same working
+   * copy took, less the time taken to compare revisions. Skips before any update has been timed don't count.
+   */
+  public long getUpdateTimeSaved() {
+    return updateTimeSaved.get();
+  }
+
+  /**
+   * Completes when every background update started so far has finished.
+   */
+  CompletableFuture<Void> backgroundUpdates() {
+    return CompletableFuture.allOf(backgroundUpdates.toArray(new CompletableFuture<?>[0]));
+  }
+
+  /**
+   * Completes when every snapshot write queued so far has finished.
+   */
+  CompletableFuture<Void> snapshotWrites() {
+    return CompletableFuture.allOf(snapshotWrites.values().toArray(new CompletableFuture<?>[0]));
+  }
+
+  private boolean isConditionalUpdate() {
+    return Boolean.parseBoolean(getBootstrapProperties().getProperty(VCS_CONDITIONAL_UPDATE, "false"));
+  }
+
+  // Compares the first word of each revision, so "<sha> refs/heads/master" from ls-remote matches a bare <sha>.
+  private boolean isUpToDate(CommandLineVCSConfig config) throws VcsException {
+    String path = CommandLineVCSUtils.fullpath(config.getLocalRepo());
+    long start = System.currentTimeMillis();
+    try {
+      String local = firstWord(api().getLocalRevision(config.getLocalRepo()));
+      String remote = firstWord(remoteRevision(config));
+      long elapsed = System.currentTimeMillis() - start;
+      if (!local.isEmpty() && local.equals(remote)) {
+        updatesSkipped.incrementAndGet();
+        Long updateTime = updateTimes.get(path);
+        if (updateTime != null) {
+          long saved = Math.max(0, updateTime - elapsed);
+          updateTimeSaved.addAndGet(saved);
+          log.info("{}: [{}] is already at remote revision [{}], skipping update (checked in {} ms, the last update took {} ms,"
+              + " saving {} ms).", getImplementationName(), path, remote, elapsed, updateTime, saved);
+        } else {
+          log.info("{}: [{}] is already at remote revision [{}], skipping update (checked in {} ms).", getImplementationName(),
+              path, remote, elapsed);
+        }
+        return true;
+      }
+      log.info("{}: [{}] is at revision [{}], remote is at [{}], updating (checked in {} ms).", getImplementationName(), path,
+          local, remote, elapsed);
+    } catch (VcsException e) {
+      log.warn("{}: Failed to compare revisions for [{}], updating.", getImplementationName(), path, e);
+    }
+    return false;
+  }
+
+  private String remoteRevision(CommandLineVCSConfig config) throws VcsException {
+    VersionControlSystem api = api();
+    if (config.hasRevision() && api instanceof CommandLineVCS) {
+      return ((CommandLineVCS) api).getRemoteRevision(config.getRemoteRepo(), config.getLocalRepo(), config.getRevision());
+    }
+    return api.getRemoteRevision(config.getRemoteRepo(), config.getLocalRepo());
+  }
+
+  private static String firstWord(String revision) {
+    String trimmed = revision != null ? revision.trim() : "";
+    int end = 0;
+    while (end < trimmed.length() && !Character.isWhitespace(trimmed.charAt(end))) {
+      end++;
+    }
+    return trimmed.substring(0, end);
+  }
+
+  // With more than one working copy they are all done at the same time; the first failure cancels the rest.
+  private void forEachWorkingCopy(WorkingCopyAction action) throws VcsException {
+    List<CommandLineVCSConfig> configs = workingCopies();
+    if (configs.size() == 1) {
+      action.apply(configs.get(0));
+      return;
+    }
+    int parallelism = Math.max(1, Integer.parseInt(getBootstrapProperties().getProperty(VCS_WORKING_COPY_PARALLELISM, DEFAULT_PARALLELISM)));
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, configs.size()),
+        new ManagedThreadFactory(getImplementationName() + "-workingcopy"));
+    try {
+      CompletionService<CommandLineVCSConfig> completion = new ExecutorCompletionService<>(executor);
+      long start = System.currentTimeMillis();
+      for (CommandLineVCSConfig config : configs) {
+        completion.submit(() -> {
+          long started = System.currentTimeMillis();
+          action.apply(config);
+          log.info("{}: [{}] done in {} ms", getImplementationName(), config.getName(), System.currentTimeMillis() - started);
+          return config;
+        });
+      }
+      for (int i = 0; i < configs.size(); i++) {
+        completion.take().get();
+      }
+      log.info("{}: {} working copies done in {} ms", getImplementationName(), configs.size(), System.currentTimeMillis() - start);
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof VcsException ? (VcsException) e.getCause() : new VcsException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new VcsException("Interrupted waiting for working copies", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  // The unindexed working copy, followed by any vcs.workingcopy.url.<n> working copies in index order.
+  private List<CommandLineVCSConfig> workingCopies() {
+    Properties properties = getBootstrapProperties();
+    CommandLineVCSConfig unindexed = new CommandLineVCSConfig(properties, null);
+    SortedSet<Long> indexes = new TreeSet<>();
+    for (String key : properties.stringPropertyNames()) {
+      if (key.startsWith(VCS_LOCAL_URL_KEY + ".")) {
+        try {
+          indexes.add(Long.parseLong(key.substring(VCS_LOCAL_URL_KEY.length() + 1)));
+        } catch (NumberFormatException e) {
+          log.warn("{}: Ignoring [{}], working copies must be numbered", getImplementationName(), key);
+        }
+      }
+    }
+    List<CommandLineVCSConfig> result = new ArrayList<>();
+    if (unindexed.isConfigured() || indexes.isEmpty()) {
+      result.add(unindexed);
+    }
+    for (Long index : indexes) {
+      result.add(new CommandLineVCSConfig(properties, "." + index));
+    }
+    return result;
   }
 
   private void commandLineCheckout(CommandLineVCSConfig config) throws VcsException {
@@ -65,11 +612,13 @@ public class CommandLineRVC implements RuntimeVersionControl {
       return;
     }
     log.info("{}: Performing checkout to [{}] ", getImplementationName(), CommandLineVCSUtils.fullpath(config.getLocalRepo()));
+    long start = System.currentTimeMillis();
     if (!config.hasRevision()) {
       this.api().checkout(config.getRemoteRepo(), config.getLocalRepo());
     } else {
       this.api().checkout(config.getRemoteRepo(), config.getLocalRepo(), config.getRevision());
     }
+    logFetched("Checkout", config.getLocalRepo(), 0, start);
 
   }
 
@@ -79,11 +628,92 @@ public class CommandLineRVC implements RuntimeVersionControl {
       return;
     }
     log.info("{}: Performing update to [{}] ", getImplementationName(), CommandLineVCSUtils.fullpath(config.getLocalRepo()));
+    refreshMirror(config);
+    long before = log.isInfoEnabled() ? metadataSize(config.getLocalRepo()) : 0;
+    long start = System.currentTimeMillis();
     if (isEmpty(config.getRevision())) {
       this.api().update(config.getLocalRepo());
     } else {
       this.api().update(config.getLocalRepo(), config.getRevision());
     }
+    logFetched("Update", config.getLocalRepo(), before, start);
+    writeSnapshot(config, config.getLocalRepo());
+  }
+
+  // A cold start from a local snapshot, leaving the update to fetch whatever has changed since.
+  private boolean restoreSnapshot(CommandLineVCSConfig config) throws VcsException {
+    File snapshot = config.getSnapshot();
+    if (snapshot == null || !snapshot.isFile()) {
+      return false;
+    }
+    File workingCopy = config.getLocalRepo();
+    long start = System.currentTimeMillis();
+    try {
+      String revision = WorkingCopySnapshot.restore(snapshot, workingCopy);
+      log.info("{}: Restored [{}] at revision [{}] from [{}] in {} ms", getImplementationName(),
+          CommandLineVCSUtils.fullpath(workingCopy), revision, snapshot, System.currentTimeMillis() - start);
+      return true;
+    } catch (IOException e) {
+      log.warn("{}: Failed to restore [{}] from [{}], checking out instead.", getImplementationName(),
+          CommandLineVCSUtils.fullpath(workingCopy), snapshot, e);
+      FileUtils.deleteQuietly(workingCopy);
+      return false;
+    }
+  }
+
+  // Written in the background, one at a time for each snapshot file, so the update doesn't wait for it.
+  private void writeSnapshot(CommandLineVCSConfig config, File workingCopy) {
+    File snapshot = config.getSnapshot();
+    if (snapshot == null) {
+      return;
+    }
+    Runnable write = () -> writeSnapshot(workingCopy, snapshot);
+    snapshotWrites.compute(snapshot, (file, previous) -> previous == null
+        ? CompletableFuture.runAsync(write, CommandThreads::execute)
+        : previous.thenRunAsync(write, CommandThreads::execute));
+  }
+
+  // Only when the revision has moved on; a failure only costs the next cold start some time. The working copy is
+  // locked for reading, so that it can't be updated or swapped half way through.
+  private void writeSnapshot(File workingCopy, File snapshot) {
+    try {
+      WorkingCopyLocks.Lease lease = lockWorkingCopy(workingCopy, true);
+      try {
+        String revision = localRevision(workingCopy);
+        if (revision != null && revision.equals(WorkingCopySnapshot.revision(snapshot))) {
+          return;
+        }
+        long start = System.currentTimeMillis();
+        WorkingCopySnapshot.write(workingCopy, snapshot, revision);
+        log.info("{}: Wrote snapshot [{}] of [{}] at revision [{}] in {} ms", getImplementationName(), snapshot,
+            CommandLineVCSUtils.fullpath(workingCopy), revision, System.currentTimeMillis() - start);
+      } finally {
+        if (lease != null) {
+          lease.close();
+        }
+      }
+    } catch (VcsException | IOException | RuntimeException e) {
+      log.warn("{}: Failed to write snapshot [{}]", getImplementationName(), snapshot, e);
+    }
+  }
+
+  // How much the repository metadata has grown by is a close enough measure of what was fetched.
+  private void logFetched(String action, File workingCopy, long sizeBefore, long start) {
+    if (log.isInfoEnabled()) {
+      log.info("{}: {} of [{}] took {} ms, {} bytes fetched", getImplementationName(), action,
+          CommandLineVCSUtils.fullpath(workingCopy), System.currentTimeMillis() - start,
+          Math.max(0, metadataSize(workingCopy) - sizeBefore));
+    }
+  }
+
+  private static long metadataSize(File workingCopy) {
+    File metadata = new File(workingCopy, GIT_METADATA);
+    try {
+      return metadata.isDirectory() ? FileUtils.sizeOfDirectory(metadata) : 0;
+    } catch (RuntimeException e) {
+      // Changed while we were looking.
+      return 0;
+    }
   }
 
   @Override
@@ -93,7 +723,7 @@ public class CommandLineRVC implements RuntimeVersionControl {
 
   @Override
   public VersionControlSystem getApi(Properties properties) throws VcsException {
-    return new CommandLineVCS(properties);
+    return new CommandLineVCS(CheckoutProfile.apply(properties));
   }
 
   public BootstrapProperties getBootstrapProperties() {
@@ -115,18 +745,30 @@ public class CommandLineRVC implements RuntimeVersionControl {
     this.api = api;
   }
 
+  @FunctionalInterface
+  private interface WorkingCopyAction {
+    void apply(CommandLineVCSConfig config) throws VcsException;
+  }
+
   private class CommandLineVCSConfig {
     private String localRepo;
     private String remoteRepo;
     private String revision;
+    private String snapshot;
 
-    CommandLineVCSConfig(Properties properties) {
-      localRepo = properties.getProperty(VCS_LOCAL_URL_KEY);
-      remoteRepo = properties.getProperty(VCS_REMOTE_REPO_URL_KEY);
-      revision = properties.getProperty(VCS_REVISION_KEY);
+    CommandLineVCSConfig(Properties properties, String suffix) {
+      String s = suffix != null ? suffix : "";
+      localRepo = properties.getProperty(VCS_LOCAL_URL_KEY + s);
+      remoteRepo = properties.getProperty(VCS_REMOTE_REPO_URL_KEY + s);
+      revision = properties.getProperty(VCS_REVISION_KEY + s);
+      snapshot = properties.getProperty(VCS_SNAPSHOT_FILE + s);
 
     }
 
+    String getName() {
+      return localRepo;
+    }
+
     boolean isConfigured() {
       return localRepo != null && remoteRepo != null;
     }
@@ -146,5 +788,9 @@ public class CommandLineRVC implements RuntimeVersionControl {
     File getLocalRepo() throws VcsException {
       return CommandLineVCSUtils.urlToFile(localRepo);
     }
+
+    File getSnapshot() {
+      return isEmpty(snapshot) ? null : new File(snapshot);
+    }
   }
 }
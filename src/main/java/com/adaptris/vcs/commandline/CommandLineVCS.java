@@ -4,57 +4,149 @@ import static com.adaptris.core.management.vcs.VcsConstants.VCS_LOCAL_URL_KEY;
 import static com.adaptris.core.management.vcs.VcsConstants.VCS_REMOTE_REPO_URL_KEY;
 import static com.adaptris.core.management.vcs.VcsConstants.VCS_REVISION_KEY;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_ADD_AND_COMMIT;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_BATCH_MAX_LENGTH;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_BATCH_SIZE;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.EXECUTION_SESSION;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_CHANGED_FILES;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_CHECKOUT;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_COMMIT;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_EXECUTION;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_LOCAL_REVISION;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_LOCK;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_LOCK_DIR;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_LOCK_TIMEOUT;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_METRICS_JMX;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_MIRROR_CREATE;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_MIRROR_UPDATE;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_OUTPUT_MAX_BYTES;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_PARALLELISM;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_RECURSIVE_ADD;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_REMOTE_REVISION;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_REVISION_CACHE_LOCAL;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_REVISION_CACHE_METADATA;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_REVISION_CACHE_TTL;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_SESSION_POOL_SIZE;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_SESSION_SHELL;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_STAGING;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_TEST_CONNECTION;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_TIMEOUT;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_UPDATE;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_VALIDATE;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMIT_MESSAGE_KEY;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CURRENT_REVISION_KEY;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_LIMIT_KEY;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_LOCAL_FILE_KEY;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_LOCAL_FILES_KEY;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_LOCAL_FILES_LIST_KEY;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_LOCAL_REVISION_RESOLVER;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_MIRROR_DIR;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_PREVIOUS_REVISION_KEY;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_REMOTE_REVISION_PARALLELISM;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_MIRROR_REFRESH_INTERVAL;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_MIRROR_URL_KEY;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_STAGING_URL_KEY;
 import static com.adaptris.vcs.commandline.CommandLineVCSUtils.fullpath;
+import static org.apache.commons.lang3.StringUtils.isEmpty;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.SortedSet;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
 import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.exec.Executor;
-import org.apache.commons.exec.PumpStreamHandler;
 import org.apache.commons.exec.util.StringUtils;
-import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.NOPLogger;
 
 import com.adaptris.core.management.vcs.RevisionHistoryItem;
 import com.adaptris.core.management.vcs.VcsException;
 import com.adaptris.core.management.vcs.VersionControlSystem;
-import com.adaptris.core.util.PropertyHelper;
+import com.adaptris.core.util.ManagedThreadFactory;
 
-public class CommandLineVCS implements VersionControlSystem {
+public class CommandLineVCS implements VersionControlSystem, Closeable {
 
   private static final String VCS_NAME = "CommandLine";
   private static final String DEFAULT_TIMEOUT = "60000";
+  private static final String DEFAULT_OUTPUT_MAX_BYTES = String.valueOf(1024 * 1024);
+  private static final String DEFAULT_SHELL = "/bin/sh";
+  private static final String DEFAULT_SESSION_POOL_SIZE = "1";
+  private static final String DEFAULT_PARALLELISM = "4";
+  private static final String DEFAULT_METADATA_DIRECTORY = ".git";
+  private static final String DEFAULT_MIRROR_REFRESH_INTERVAL = "60000";
+  private static final String DEFAULT_BATCH_SIZE = "1000";
+  // Windows caps a command line at 32767 characters; stay comfortably below that.
+  private static final String DEFAULT_BATCH_MAX_LENGTH = "30000";
   private static final String COMMAND_PROPERTIES = "vcs-command-line.properties";
+  // Actions that don't change the working copy or the remote.
+  private static final Set<String> READ_ONLY_ACTIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+      VCS_COMMAND_LINE_TEST_CONNECTION, VCS_COMMAND_LINE_REMOTE_REVISION, VCS_COMMAND_LINE_LOCAL_REVISION,
+      VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY, VCS_COMMAND_LINE_VALIDATE, VCS_COMMAND_LINE_MIRROR_CREATE,
+      VCS_COMMAND_LINE_MIRROR_UPDATE, VCS_COMMAND_LINE_CHANGED_FILES, VCS_COMMAND_LINE_STAGING)));
+
+  private static final Set<String> MIRROR_ACTIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+      VCS_COMMAND_LINE_MIRROR_CREATE, VCS_COMMAND_LINE_MIRROR_UPDATE)));
+  // Remote queries that can safely be run twice at once.
+  private static final Set<String> HEDGED_ACTIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+      VCS_COMMAND_LINE_TEST_CONNECTION, VCS_COMMAND_LINE_REMOTE_REVISION, VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY)));
+  private static final String DEFAULT_LOCK_DIRECTORY = "interlok-vcs-locks";
+  private static final String DEFAULT_LOCK_TIMEOUT = "300000";
 
   protected transient Logger log = LoggerFactory.getLogger(this.getClass());
 
   private Properties commandProperties;
+  private transient ShellSessionPool sessionPool;
+  private transient ExecutorService groupExecutor;
+  private transient ExecutorService hedgeExecutor;
+  private final transient Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+  private transient RevisionCache revisionCache;
+  private transient RevisionResolver revisionResolver;
+  private transient String revisionResolverName;
+  private transient WorkingCopyLocks workingCopyLocks;
+  private final transient List<CommandOutputListener> outputListeners = new CopyOnWriteArrayList<>();
+  private final transient List<CommandMetricsListener> metricsListeners = new CopyOnWriteArrayList<>();
+  private transient volatile CommandCache commandCache;
+  private final transient Map<Thread, ActionContext> running = new ConcurrentHashMap<>();
 
   public CommandLineVCS(){
   }
@@ -78,6 +170,7 @@ public class CommandLineVCS implements VersionControlSystem {
     Map<String, String> substitutionMap = new HashMap<>();
     substitutionMap.put(VCS_REMOTE_REPO_URL_KEY, remoteRepoUrl);
     substitutionMap.put(VCS_LOCAL_URL_KEY, fullpath(workingCopyUrl));
+    addMirror(substitutionMap, remoteRepoUrl);
     return commandLineAction(VCS_COMMAND_LINE_CHECKOUT, substitutionMap, workingCopyUrl);
   }
 
@@ -87,6 +180,7 @@ public class CommandLineVCS implements VersionControlSystem {
     substitutionMap.put(VCS_REMOTE_REPO_URL_KEY, remoteRepoUrl);
     substitutionMap.put(VCS_LOCAL_URL_KEY, fullpath(workingCopyUrl));
     substitutionMap.put(VCS_REVISION_KEY, revision);
+    addMirror(substitutionMap, remoteRepoUrl);
     return commandLineAction(VCS_COMMAND_LINE_CHECKOUT, substitutionMap, workingCopyUrl);
   }
 
@@ -140,37 +234,234 @@ public class CommandLineVCS implements VersionControlSystem {
 
   @Override
   public String getRemoteRevision(String remoteRepoUrl, File workingCopyUrl) throws VcsException {
+    return getRemoteRevision(remoteRepoUrl, workingCopyUrl, null);
+  }
+
+  /**
+   * As {@link #getRemoteRevision(String, File)} but with {@code ${vcs.revision}} available to the command.
+   */
+  public String getRemoteRevision(String remoteRepoUrl, File workingCopyUrl, String revision) throws VcsException {
     Map<String, String> substitutionMap = new HashMap<>();
     substitutionMap.put(VCS_REMOTE_REPO_URL_KEY, remoteRepoUrl);
     substitutionMap.put(VCS_LOCAL_URL_KEY, fullpath(workingCopyUrl));
-    return commandLineAction(VCS_COMMAND_LINE_REMOTE_REVISION, substitutionMap, workingCopyUrl);
+    if (revision != null) {
+      substitutionMap.put(VCS_REVISION_KEY, revision);
+    }
+    return revisionCache().remote(remoteRepoUrl + "\n" + fullpath(workingCopyUrl) + "\n" + revision,
+        () -> commandLineAction(VCS_COMMAND_LINE_REMOTE_REVISION, substitutionMap, workingCopyUrl));
+  }
+
+  /**
+   * Look up the remote revision of many working copies, {@code vcs.remote.revision.parallelism} (default 4) at a
+   * time; working copies of the same remote share a single lookup.
+   *
+   * @param workingCopies each working copy, and the remote repository it comes from.
+   * @return the revision of each working copy, or why it couldn't be found.
+   */
+  public RemoteRevisions getRemoteRevisions(Map<File, String> workingCopies) throws VcsException {
+    Map<String, File> remotes = new LinkedHashMap<>();
+    workingCopies.forEach((workingCopy, remote) -> remotes.putIfAbsent(remote, workingCopy));
+    Map<String, String> revisions = new ConcurrentHashMap<>();
+    Map<String, VcsException> errors = new ConcurrentHashMap<>();
+    if (remotes.isEmpty()) {
+      return new RemoteRevisions(workingCopies, revisions, errors);
+    }
+    int parallelism = Math.max(1, Integer.parseInt(getCommandProperties().getProperty(VCS_REMOTE_REVISION_PARALLELISM, DEFAULT_PARALLELISM)));
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, remotes.size()),
+        new ManagedThreadFactory(getImplementationName() + "-revisions"));
+    try {
+      List<Future<?>> lookups = new ArrayList<>(remotes.size());
+      for (Map.Entry<String, File> remote : remotes.entrySet()) {
+        lookups.add(executor.submit(() -> {
+          try {
+            String revision = getRemoteRevision(remote.getKey(), remote.getValue());
+            revisions.put(remote.getKey(), revision != null ? revision : "");
+          } catch (VcsException e) {
+            errors.put(remote.getKey(), e);
+          } catch (RuntimeException e) {
+            errors.put(remote.getKey(), new VcsException(e));
+          }
+        }));
+      }
+      for (Future<?> lookup : lookups) {
+        lookup.get();
+      }
+    } catch (ExecutionException e) {
+      throw new VcsException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new VcsException("Interrupted waiting for remote revisions", e);
+    } finally {
+      executor.shutdownNow();
+    }
+    return new RemoteRevisions(workingCopies, revisions, errors);
   }
 
   @Override
   public String getLocalRevision(File workingCopyUrl) throws VcsException {
     Map<String, String> substitutionMap = new HashMap<>();
     substitutionMap.put(VCS_LOCAL_URL_KEY, fullpath(workingCopyUrl));
-    return commandLineAction(VCS_COMMAND_LINE_LOCAL_REVISION, substitutionMap, workingCopyUrl);
+    return revisionCache().local(workingCopyUrl, () -> {
+      String revision = resolveLocalRevision(workingCopyUrl);
+      return revision != null ? revision : commandLineAction(VCS_COMMAND_LINE_LOCAL_REVISION, substitutionMap, workingCopyUrl);
+    });
+  }
+
+  private String resolveLocalRevision(File workingCopy) throws VcsException {
+    RevisionResolver resolver = revisionResolver();
+    if (resolver == null) {
+      return null;
+    }
+    try {
+      String revision = resolver.localRevision(workingCopy);
+      if (revision == null) {
+        log.trace("{}: [{}] can't resolve the revision of [{}], running [{}]", getImplementationName(), revisionResolverName,
+            workingCopy, VCS_COMMAND_LINE_LOCAL_REVISION);
+      }
+      return revision;
+    } catch (IOException | RuntimeException e) {
+      log.debug("{}: [{}] failed to resolve the revision of [{}], running [{}]", getImplementationName(), revisionResolverName,
+          workingCopy, VCS_COMMAND_LINE_LOCAL_REVISION, e);
+      return null;
+    }
+  }
+
+  /**
+   * Bring the host's shared mirror of the remote up to date, unless it was refreshed (by this or another JVM) within
+   * {@code vcs.mirror.refresh.interval}.
+   *
+   * @return the mirror, or null if {@code vcs.mirror.dir} isn't configured.
+   */
+  public File refreshMirror(String remoteRepoUrl) throws VcsException {
+    String mirrorsDirectory = getCommandProperties().getProperty(VCS_MIRROR_DIR);
+    if (isEmpty(mirrorsDirectory)) {
+      return null;
+    }
+    SharedMirror mirror = SharedMirror.forRemote(new File(mirrorsDirectory), remoteRepoUrl);
+    long interval = Long.parseLong(getCommandProperties().getProperty(VCS_MIRROR_REFRESH_INTERVAL, DEFAULT_MIRROR_REFRESH_INTERVAL));
+    Map<String, String> substitutionMap = new HashMap<>();
+    substitutionMap.put(VCS_REMOTE_REPO_URL_KEY, remoteRepoUrl);
+    substitutionMap.put(VCS_MIRROR_URL_KEY, mirror.getDirectory().getPath());
+    long start = System.currentTimeMillis();
+    if (mirror.refresh(interval,
+        () -> commandLineAction(VCS_COMMAND_LINE_MIRROR_CREATE, substitutionMap, mirror.getDirectory().getParentFile()),
+        () -> commandLineAction(VCS_COMMAND_LINE_MIRROR_UPDATE, substitutionMap, mirror.getDirectory()))) {
+      log.info("{}: Refreshed mirror [{}] of [{}] in {} ms", getImplementationName(), mirror.getDirectory(), remoteRepoUrl,
+          System.currentTimeMillis() - start);
+    } else {
+      log.debug("{}: Mirror [{}] is recent enough", getImplementationName(), mirror.getDirectory());
+    }
+    return mirror.getDirectory();
+  }
+
+  private void addMirror(Map<String, String> substitutionMap, String remoteRepoUrl) throws VcsException {
+    File mirror = refreshMirror(remoteRepoUrl);
+    if (mirror != null) {
+      substitutionMap.put(VCS_MIRROR_URL_KEY, mirror.getPath());
+    }
+  }
+
+  /**
+   * Run the {@code vcs.command.line.validate} commands, if there are any, against the working copy.
+   */
+  public String validate(File workingCopyUrl) throws VcsException {
+    if (getCommands(VCS_COMMAND_LINE_VALIDATE).size() == 0) {
+      return "";
+    }
+    Map<String, String> substitutionMap = new HashMap<>();
+    substitutionMap.put(VCS_LOCAL_URL_KEY, fullpath(workingCopyUrl));
+    return commandLineAction(VCS_COMMAND_LINE_VALIDATE, substitutionMap, workingCopyUrl);
+  }
+
+  /**
+   * Run the {@code vcs.command.line.staging} commands, if there are any, to create {@code ${vcs.staging.url}} from the
+   * working copy; the working copy is only locked for reading while they run.
+   *
+   * @return false if there are no commands.
+   */
+  public boolean createStaging(String remoteRepoUrl, File workingCopyUrl, File stagingUrl) throws VcsException {
+    if (getCommands(VCS_COMMAND_LINE_STAGING).size() == 0) {
+      return false;
+    }
+    Map<String, String> substitutionMap = new HashMap<>();
+    substitutionMap.put(VCS_REMOTE_REPO_URL_KEY, remoteRepoUrl);
+    substitutionMap.put(VCS_LOCAL_URL_KEY, fullpath(workingCopyUrl));
+    substitutionMap.put(VCS_STAGING_URL_KEY, fullpath(stagingUrl));
+    commandLineAction(VCS_COMMAND_LINE_STAGING, substitutionMap, workingCopyUrl);
+    return true;
+  }
+
+  /**
+   * Run the {@code vcs.command.line.changed.files} commands, with {@code ${vcs.previous.revision}} and
+   * {@code ${vcs.current.revision}} available to them, to list the files that differ between the two revisions.
+   *
+   * @return the paths output, one per line; null if there are no commands.
+   */
+  public Set<String> getChangedFiles(File workingCopyUrl, String previousRevision, String revision) throws VcsException {
+    if (getCommands(VCS_COMMAND_LINE_CHANGED_FILES).size() == 0) {
+      return null;
+    }
+    Map<String, String> substitutionMap = new HashMap<>();
+    substitutionMap.put(VCS_LOCAL_URL_KEY, fullpath(workingCopyUrl));
+    substitutionMap.put(VCS_PREVIOUS_REVISION_KEY, previousRevision);
+    substitutionMap.put(VCS_CURRENT_REVISION_KEY, revision);
+    Set<String> changed = new TreeSet<>();
+    for (String line : commandLineAction(VCS_COMMAND_LINE_CHANGED_FILES, substitutionMap, workingCopyUrl).split("[\\r\\n]+")) {
+      if (!line.trim().isEmpty()) {
+        changed.add(line.trim());
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Discard any cached revisions for the working copy, e.g. because it has been replaced.
+   */
+  public void invalidateRevisions(File workingCopyUrl) throws VcsException {
+    revisionCache().invalidate(workingCopyUrl);
   }
 
   @Override
   public List<RevisionHistoryItem> getRemoteRevisionHistory(String remoteRepoUrl, File workingCopyUrl, int limit) throws VcsException {
+    RevisionHistoryParser parser = new RevisionHistoryParser(limit, getImplementationName(), log);
+    commandLineAction(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY, historySubstitutions(remoteRepoUrl, workingCopyUrl, limit),
+        workingCopyUrl, null, parser);
+    return parser.getHistory();
+  }
+
+  /**
+   * Stream the revision history as it is output, rather than waiting for the command to finish.
+   * <p>
+   * The history command runs in the background, it is stopped when {@code limit} items have been read (if
+   * {@code limit > 0}) or when the stream is closed; so close the stream if you don't consume all of it. Failures
+   * are thrown as {@link IllegalStateException}s from the stream.
+   * </p>
+   */
+  public Stream<RevisionHistoryItem> streamRemoteRevisionHistory(String remoteRepoUrl, File workingCopyUrl, int limit) throws VcsException {
+    final Map<String, String> substitutionMap = historySubstitutions(remoteRepoUrl, workingCopyUrl, limit);
+    final RevisionHistoryStream stream = new RevisionHistoryStream(limit, getImplementationName(), log);
+    Thread thread = new Thread(() -> {
+      VcsException failure = null;
+      try {
+        commandLineAction(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY, substitutionMap, workingCopyUrl, null, stream);
+      } catch (VcsException e) {
+        failure = e;
+      } finally {
+        stream.finished(failure);
+      }
+    }, getImplementationName() + "-history");
+    thread.setDaemon(true);
+    thread.start();
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(stream, Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .onClose(stream::close);
+  }
+
+  private static Map<String, String> historySubstitutions(String remoteRepoUrl, File workingCopyUrl, int limit) {
     Map<String, String> substitutionMap = new HashMap<>();
     substitutionMap.put(VCS_REMOTE_REPO_URL_KEY, remoteRepoUrl);
     substitutionMap.put(VCS_LOCAL_URL_KEY, fullpath(workingCopyUrl));
     substitutionMap.put(VCS_LIMIT_KEY, String.valueOf(limit));
-    final String result = commandLineAction(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY, substitutionMap, workingCopyUrl);
-    final String lines[] = result.split("\\r?\\n");
-    List<RevisionHistoryItem> history = new ArrayList<>();
-    for(String line : lines){
-      String historyItem[] = line.split("\\s+", 2);
-      if(historyItem.length < 2){
-        log.warn("{}: History item returned less than 2 items ignoring.", getImplementationName());
-        continue;
-      }
-      history.add(new RevisionHistoryItem(historyItem[0],historyItem[1]));
-    }
-    return history;
+    return substitutionMap;
   }
 
   Properties getCommandProperties() throws VcsException{
@@ -193,51 +484,616 @@ public class CommandLineVCS implements VersionControlSystem {
   }
 
   String commandLineAction(String filterKey, Map<String, String> substitutionMap, File workingDirectory, final String repeatedKey) throws VcsException{
-    List<String> commands = getCommands(filterKey);
+    return commandLineAction(filterKey, substitutionMap, workingDirectory, repeatedKey, null);
+  }
+
+  String commandLineAction(String filterKey, Map<String, String> substitutionMap, File workingDirectory, final String repeatedKey,
+                           final OutputConsumer consumer) throws VcsException{
+    CommandSequence commands = getCommands(filterKey);
     if (commands.size() == 0) {
       final String message = String.format("%s: Commands for [%s] not configured.", getImplementationName(), filterKey);
       log.error(message);
       throw new VcsException(message);
     }
+    RetryPolicy retry = RetryPolicy.of(commands);
+    boolean hedged = HEDGED_ACTIONS.contains(filterKey) && repeatedKey == null && consumer == null && retry.isHedged();
+    // Don't leave a half finished checkout in the way of the next attempt.
+    boolean cleanUp = retry.getAttempts() > 1;
+    // The action's budget covers every attempt, and the waits between them.
+    long deadline = commands.getTimeout() > 0 ? System.currentTimeMillis() + commands.getTimeout() : -1;
+    for (int attempt = 1;; attempt++) {
+      try {
+        if (hedged) {
+          return hedgedAttempt(commands, retry, substitutionMap, workingDirectory, deadline);
+        }
+        return attempt(commands, substitutionMap, workingDirectory, repeatedKey, consumer, cleanUp, deadline);
+      } catch (VcsException e) {
+        if (attempt >= retry.getAttempts() || isAbandoned(e) || !retry.isRetryable(exitValue(e))) {
+          throw e;
+        }
+        long delay = retry.delay(attempt);
+        if (deadline > 0 && System.currentTimeMillis() + delay >= deadline) {
+          log.warn("{}: [{}] failed (attempt {} of {}) and has no time left to try again", getImplementationName(), filterKey,
+              attempt, retry.getAttempts());
+          throw e;
+        }
+        log.warn("{}: [{}] failed (attempt {} of {}), trying again in {} ms", getImplementationName(), filterKey, attempt,
+            retry.getAttempts(), delay);
+        try {
+          TimeUnit.MILLISECONDS.sleep(delay);
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
 
+  // Start a second attempt if the first is slower than usual; whichever succeeds first wins.
+  private String hedgedAttempt(CommandSequence commands, RetryPolicy retry, Map<String, String> substitutionMap,
+                               File workingDirectory, long deadline) throws VcsException {
+    LatencyWindow window = latencies.computeIfAbsent(commands.getFilterKey(), k -> new LatencyWindow());
+    long hedgeAfter = retry.hedgeAfter(window);
+    if (hedgeAfter < 0) {
+      long start = System.currentTimeMillis();
+      String result = attempt(commands, substitutionMap, workingDirectory, null, null, false, deadline);
+      window.record(System.currentTimeMillis() - start);
+      return result;
+    }
+    CompletionService<String> completion = new ExecutorCompletionService<>(hedgeExecutor());
+    List<HedgedAttempt> attempts = new ArrayList<>();
+    try {
+      attempts.add(new HedgedAttempt(commands, substitutionMap, workingDirectory, window, deadline));
+      completion.submit(attempts.get(0));
+      Future<String> done = completion.poll(hedgeAfter, TimeUnit.MILLISECONDS);
+      if (done == null) {
+        log.debug("{}: [{}] has taken more than {} ms, starting another attempt", getImplementationName(),
+            commands.getFilterKey(), hedgeAfter);
+        attempts.add(new HedgedAttempt(commands, substitutionMap, workingDirectory, window, deadline));
+        completion.submit(attempts.get(1));
+      }
+      VcsException failure = null;
+      for (int outstanding = attempts.size(); outstanding > 0; outstanding--) {
+        try {
+          return (done != null ? done : completion.take()).get();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause() instanceof VcsException ? (VcsException) e.getCause() : new VcsException(e.getCause());
+          }
+        }
+        done = null;
+      }
+      throw failure;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AbandonedException(String.format("%s: [%s] interrupted.", getImplementationName(), commands.getFilterKey()), e);
+    } finally {
+      for (HedgedAttempt attempt : attempts) {
+        attempt.cancel();
+      }
+    }
+  }
+
+  /**
+   * @param cleanUp if the attempt fails, remove the working directory if it didn't exist before; done while the working
+   *        copy is still locked, so that nobody else can have started using it.
+   * @param deadline when the action's time budget runs out, -1 if it doesn't have one.
+   */
+  private String attempt(CommandSequence commands, Map<String, String> substitutionMap, File workingDirectory,
+                         final String repeatedKey, final OutputConsumer consumer, boolean cleanUp, long deadline)
+      throws VcsException {
+    String filterKey = commands.getFilterKey();
     String result;
-    try (OutputStream outputStream = new ByteArrayOutputStream()) {
-      DefaultExecutor executor = new DefaultExecutor();
-      PumpStreamHandler streamHandler = new PumpStreamHandler(outputStream);
-      executor.setStreamHandler(streamHandler);
-      ExecuteWatchdog watchdog = new ExecuteWatchdog(
-          Long.parseLong(getCommandProperties().getProperty(VCS_COMMAND_LINE_TIMEOUT, DEFAULT_TIMEOUT)));
-      executor.setWatchdog(watchdog);
+
+    Path fileList = null;
+    long start = System.nanoTime();
+    boolean succeeded = false;
+    WorkingCopyLocks.Lease lease = null;
+    boolean existed = true;
+    try (CommandOutput output = createOutput(consumer)) {
+      lease = lockWorkingCopy(filterKey, workingDirectory);
+      existed = workingDirectory == null || workingDirectory.exists();
+      ActionContext context = new ActionContext(commands, createExecutor(output), output, deadline);
+      output.onStop(context::requestStop);
+      running.put(Thread.currentThread(), context);
 
       List<String> repeatedKeys = getRepeatedKeys(substitutionMap, repeatedKey);
-      for (String command : commands) {
-        if(workingDirectory != null && workingDirectory.exists()) {
-          executor.setWorkingDirectory(workingDirectory);
-        }
-        if (repeatedKeys.size() == 0){
-          executeCommand(executor, command, substitutionMap);
+      boolean batched = isBatched(commands, repeatedKey);
+      Map<String, String> substitutions = new HashMap<>(substitutionMap);
+      if (batched && repeatedKeys.size() > 0 && commands.references(batchListKey(repeatedKey))) {
+        fileList = writeFileList(substitutionMap, repeatedKeys);
+        substitutions.put(batchListKey(repeatedKey), fileList.toString());
+      }
+      for (List<CommandSequence.Step> stage : commands.getStages()) {
+        if (stage.size() > 1) {
+          executeGroup(context, stage, output, workingDirectory, substitutions, batched, repeatedKey, repeatedKeys);
         } else {
-          for (String key : repeatedKeys){
-            executeCommand(executor, command.replaceAll(repeatedKey, key), substitutionMap);
+          CommandSequence.Step step = stage.get(0);
+          output.startCommand(step.getTemplate().getCommand());
+          if(workingDirectory != null && workingDirectory.exists()) {
+            context.executor.setWorkingDirectory(workingDirectory);
           }
+          executeStep(context, step, substitutions, batched, repeatedKey, repeatedKeys);
+          output.endCommand();
         }
-        log.trace("Command output:\n" + outputStream.toString());
+        if (output.isStopped()) {
+          log.debug("{}: [{}] has all the output it needs, skipping any remaining commands", getImplementationName(), filterKey);
+          break;
+        }
+      }
+      if (output.isTruncated()) {
+        log.debug("{}: [{}] produced {} bytes of output, only the last {} bytes are retained", getImplementationName(),
+            filterKey, output.getTotalBytes(), output.toByteArray().length);
       }
-      result = outputStream.toString();
+      result = output.toString();
+      succeeded = true;
     } catch (IOException e) {
       throw new VcsException(e);
+    } finally {
+      running.remove(Thread.currentThread());
+      actionCompleted(filterKey, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), succeeded);
+      deleteQuietly(fileList);
+      if (!READ_ONLY_ACTIONS.contains(filterKey)) {
+        revisionCache().invalidate(workingDirectory);
+      }
+      if (cleanUp && !succeeded && !existed && workingDirectory.exists()) {
+        FileUtils.deleteQuietly(workingDirectory);
+      }
+      if (lease != null) {
+        lease.close();
+      }
     }
     return result;
   }
 
-  void executeCommand(Executor executor, final String command, final Map<String, String> substitutionMap) throws VcsException {
-    CommandLine cmdLine = CommandLine.parse(command);
-    cmdLine.setSubstitutionMap(substitutionMap);
-    log.debug("Executing command [" + StringUtils.toString(cmdLine.toStrings(), " ") + "]");
+  private WorkingCopyLocks.Lease lockWorkingCopy(String filterKey, File workingDirectory) throws VcsException {
+    // The mirror has a lock of its own.
+    if (workingDirectory == null || MIRROR_ACTIONS.contains(filterKey)) {
+      return WorkingCopyLocks.NONE;
+    }
+    boolean shared = READ_ONLY_ACTIONS.contains(filterKey);
+    if (shared && !workingDirectory.exists()) {
+      return WorkingCopyLocks.NONE;
+    }
+    return lockWorkingCopy(workingDirectory, shared);
+  }
+
+  /**
+   * Lock the working copy against other threads and JVMs; a no-op if {@code vcs.command.line.lock=false}.
+   *
+   * @param shared true if only reading, so others may read at the same time.
+   */
+  WorkingCopyLocks.Lease lockWorkingCopy(File workingCopy, boolean shared) throws VcsException {
+    if (!Boolean.parseBoolean(getCommandProperties().getProperty(VCS_COMMAND_LINE_LOCK, "true"))) {
+      return WorkingCopyLocks.NONE;
+    }
+    return workingCopyLocks().lock(workingCopy, shared);
+  }
+
+  private synchronized WorkingCopyLocks workingCopyLocks() throws VcsException {
+    if (workingCopyLocks == null) {
+      String lockDirectory = getCommandProperties().getProperty(VCS_COMMAND_LINE_LOCK_DIR,
+          new File(System.getProperty("java.io.tmpdir"), DEFAULT_LOCK_DIRECTORY).getPath());
+      long timeout = Long.parseLong(getCommandProperties().getProperty(VCS_COMMAND_LINE_LOCK_TIMEOUT, DEFAULT_LOCK_TIMEOUT));
+      workingCopyLocks = new WorkingCopyLocks(new File(lockDirectory), timeout);
+    }
+    return workingCopyLocks;
+  }
+
+  private void executeStep(ActionContext context, CommandSequence.Step step, Map<String, String> substitutions,
+                           boolean batched, String repeatedKey, List<String> repeatedKeys) throws VcsException {
+    if (batched) {
+      executeBatched(context, step, substitutions, repeatedKey, repeatedKeys);
+    } else if (repeatedKeys.size() == 0){
+      execute(context, step, step.getTemplate().toCommandLine(substitutions));
+    } else {
+      executeRepeated(context, step, substitutions, repeatedKey, repeatedKeys);
+    }
+  }
+
+  // Each member of the group gets its own executor and output, which is copied to the action's output in key order
+  // once the whole group has finished; the first failure abandons the rest of the group.
+  private void executeGroup(ActionContext context, List<CommandSequence.Step> group, CommandOutput output, File workingDirectory,
+                            Map<String, String> substitutions, boolean batched, String repeatedKey, List<String> repeatedKeys)
+      throws VcsException {
+    log.debug("{}: Running {} in parallel", getImplementationName(), group);
+    CompletionService<Integer> completion = new ExecutorCompletionService<>(groupExecutor());
+    List<ActionContext> members = new ArrayList<>(group.size());
+    List<CommandOutput> outputs = new ArrayList<>(group.size());
+    for (int i = 0; i < group.size(); i++) {
+      final int index = i;
+      final CommandSequence.Step step = group.get(i);
+      final Map<String, String> memberSubstitutions = new HashMap<>(substitutions);
+      CommandOutput memberOutput = createGroupOutput();
+      final ActionContext member = context.fork(createExecutor(memberOutput), memberOutput);
+      if(workingDirectory != null && workingDirectory.exists()) {
+        member.executor.setWorkingDirectory(workingDirectory);
+      }
+      outputs.add(memberOutput);
+      members.add(member);
+      completion.submit(() -> {
+        executeStep(member, step, memberSubstitutions, batched, repeatedKey, repeatedKeys);
+        return index;
+      });
+    }
+    VcsException failure = null;
+    for (int i = 0; i < group.size(); i++) {
+      try {
+        completion.take().get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause() instanceof VcsException ? (VcsException) e.getCause() : new VcsException(e.getCause());
+          members.forEach(ActionContext::abort);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        members.forEach(ActionContext::abort);
+        failure = new VcsException(String.format("%s: Interrupted waiting for %s", getImplementationName(), group), e);
+        break;
+      }
+    }
+    for (int i = 0; i < group.size(); i++) {
+      output.startCommand(group.get(i).getTemplate().getCommand());
+      byte[] bytes = outputs.get(i).toByteArray();
+      output.write(bytes, 0, bytes.length);
+      output.endCommand();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private CommandOutput createGroupOutput() throws VcsException {
+    return new CommandOutput(Integer.parseInt(getCommandProperties().getProperty(VCS_COMMAND_LINE_OUTPUT_MAX_BYTES, DEFAULT_OUTPUT_MAX_BYTES)),
+        Collections.<CommandOutputListener>emptyList(), NOPLogger.NOP_LOGGER);
+  }
+
+  private synchronized ExecutorService groupExecutor() throws VcsException {
+    if (groupExecutor == null) {
+      int parallelism = Math.max(1, Integer.parseInt(getCommandProperties().getProperty(VCS_COMMAND_LINE_PARALLELISM, DEFAULT_PARALLELISM)));
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ManagedThreadFactory(getImplementationName() + "-group"));
+      executor.allowCoreThreadTimeOut(true);
+      groupExecutor = executor;
+    }
+    return groupExecutor;
+  }
+
+  // In batch mode commands using ${vcs.local.files} run once per batch, commands using ${vcs.local.files.list}
+  // run once against a file listing every path, commands using ${vcs.local.file} still run once per file and
+  // everything else runs exactly once.
+  private void executeBatched(ActionContext context, CommandSequence.Step step, Map<String, String> substitutions,
+                              String repeatedKey, List<String> repeatedKeys) throws VcsException {
+    CommandTemplate command = step.getTemplate();
+    if (command.references(batchKey(repeatedKey))) {
+      for (List<String> batch : getBatches(command, substitutions, repeatedKeys)) {
+        execute(context, step, command.toCommandLine(substitutions, batchKey(repeatedKey), batch));
+      }
+    } else if (command.references(batchListKey(repeatedKey))) {
+      if (repeatedKeys.size() > 0) {
+        execute(context, step, command.toCommandLine(substitutions));
+      }
+    } else if (command.references(repeatedKey)) {
+      executeRepeated(context, step, substitutions, repeatedKey, repeatedKeys);
+    } else {
+      execute(context, step, command.toCommandLine(substitutions));
+    }
+  }
+
+  // ${vcs.local.file} is each file in turn.
+  private void executeRepeated(ActionContext context, CommandSequence.Step step, Map<String, String> substitutions,
+                               String repeatedKey, List<String> repeatedKeys) throws VcsException {
+    try {
+      for (String key : repeatedKeys) {
+        substitutions.put(repeatedKey, substitutions.get(key));
+        execute(context, step, step.getTemplate().toCommandLine(substitutions));
+      }
+    } finally {
+      substitutions.remove(repeatedKey);
+    }
+  }
+
+  // Each execution gets its own watchdog: the step timeout (or the default), cut short by whatever is left of
+  // the action's budget.
+  private void execute(ActionContext context, CommandSequence.Step step, CommandLine cmdLine) throws VcsException {
+    long timeout = step.getTimeout(Long.parseLong(getCommandProperties().getProperty(VCS_COMMAND_LINE_TIMEOUT, DEFAULT_TIMEOUT)));
+    if (context.deadline > 0) {
+      long remaining = context.deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        final String message = String.format("%s: [%s] exceeded its time budget of %d ms before running [%s].",
+            getImplementationName(), context.commands.getFilterKey(), context.commands.getTimeout(), step.getTemplate().getCommand());
+        log.error(message);
+        throw new VcsException(message);
+      }
+      timeout = timeout > 0 ? Math.min(timeout, remaining) : remaining;
+    }
+    if (context.aborted) {
+      throw new AbandonedException(String.format("%s: [%s] abandoned.", getImplementationName(), step.getTemplate().getCommand()), null);
+    }
+    CommandWatchdog watchdog = context.startWatchdog(timeout);
+    long start = System.nanoTime();
+    long outputBytes = context.output.getTotalBytes();
+    int exitValue = -1;
+    boolean succeeded = false;
+    try {
+      executeCommand(context.executor, cmdLine);
+      exitValue = 0;
+      succeeded = true;
+    } catch (VcsException e) {
+      if (e.getCause() instanceof ExecuteException) {
+        exitValue = ((ExecuteException) e.getCause()).getExitValue();
+      }
+      if (context.aborted) {
+        throw new AbandonedException(String.format("%s: [%s] abandoned.", getImplementationName(), step.getTemplate().getCommand()), e);
+      }
+      throw e;
+    } finally {
+      long end = System.nanoTime();
+      long startedAt = watchdog.getStartedAt();
+      commandExecuted(new CommandExecution(context.commands.getFilterKey(), step.getKey(), step.getTemplate().getCommand(),
+          startedAt > 0 ? TimeUnit.NANOSECONDS.toMillis(startedAt - start) : -1, TimeUnit.NANOSECONDS.toMillis(end - start),
+          exitValue, context.output.getTotalBytes() - outputBytes, watchdog.isTimedOut(), watchdog.isAborted(), succeeded));
+    }
+  }
+
+  private void commandExecuted(CommandExecution execution) {
+    log.debug("{}: {}", getImplementationName(), execution);
+    for (CommandMetricsListener listener : metricsListeners()) {
+      try {
+        listener.commandExecuted(execution);
+      } catch (RuntimeException e) {
+        log.warn("Metrics listener [{}] failed", listener, e);
+      }
+    }
+  }
+
+  private void actionCompleted(String filterKey, long wallTimeMillis, boolean succeeded) {
+    log.debug("{}: [{}] {} in {} ms", getImplementationName(), filterKey, succeeded ? "completed" : "failed", wallTimeMillis);
+    for (CommandMetricsListener listener : metricsListeners()) {
+      try {
+        listener.actionCompleted(filterKey, wallTimeMillis, succeeded);
+      } catch (RuntimeException e) {
+        log.warn("Metrics listener [{}] failed", listener, e);
+      }
+    }
+  }
+
+  private List<CommandMetricsListener> metricsListeners() {
+    try {
+      if (Boolean.parseBoolean(getCommandProperties().getProperty(VCS_COMMAND_LINE_METRICS_JMX, "false"))) {
+        List<CommandMetricsListener> listeners = new ArrayList<>(metricsListeners);
+        listeners.add(CommandMetrics.jmx());
+        return listeners;
+      }
+    } catch (VcsException e) {
+      // No properties, so no commands either.
+    }
+    return metricsListeners;
+  }
+
+  public void addMetricsListener(CommandMetricsListener listener) {
+    metricsListeners.add(listener);
+  }
+
+  public void removeMetricsListener(CommandMetricsListener listener) {
+    metricsListeners.remove(listener);
+  }
+
+  List<List<String>> getBatches(final CommandTemplate command, final Map<String, String> substitutionMap,
+                                final List<String> repeatedKeys) throws VcsException {
+    int batchSize = Math.max(1, Integer.parseInt(getCommandProperties().getProperty(VCS_COMMAND_LINE_BATCH_SIZE, DEFAULT_BATCH_SIZE)));
+    int maxLength = Integer.parseInt(getCommandProperties().getProperty(VCS_COMMAND_LINE_BATCH_MAX_LENGTH, DEFAULT_BATCH_MAX_LENGTH));
+    int available = maxLength - command.getCommand().length();
+    List<List<String>> results = new ArrayList<>();
+    List<String> batch = new ArrayList<>();
+    int length = 0;
+    for (String key : repeatedKeys) {
+      String value = substitutionMap.get(key);
+      // quotes and a separating space on top of the value itself.
+      int argLength = value.length() + 3;
+      if (batch.size() > 0 && (batch.size() == batchSize || length + argLength > available)) {
+        results.add(batch);
+        batch = new ArrayList<>();
+        length = 0;
+      }
+      batch.add(value);
+      length += argLength;
+    }
+    if (batch.size() > 0) {
+      results.add(batch);
+    }
+    return results;
+  }
+
+  private boolean isBatched(CommandSequence commands, String repeatedKey) {
+    return repeatedKey != null
+        && (commands.references(batchKey(repeatedKey)) || commands.references(batchListKey(repeatedKey)));
+  }
+
+  private static Path writeFileList(Map<String, String> substitutionMap, List<String> repeatedKeys) throws VcsException {
+    List<String> lines = new ArrayList<>(repeatedKeys.size());
+    for (String key : repeatedKeys) {
+      lines.add(substitutionMap.get(key));
+    }
+    try {
+      Path fileList = Files.createTempFile("vcs-local-files", ".lst");
+      Files.write(fileList, lines, StandardCharsets.UTF_8);
+      return fileList;
+    } catch (IOException e) {
+      throw new VcsException("Failed to write the list of files to add", e);
+    }
+  }
+
+  private void deleteQuietly(Path path) {
+    if (path == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      log.warn("Failed to delete [{}]", path, e);
+    }
+  }
+
+  // vcs.local.file -> ${vcs.local.files} / ${vcs.local.files.list}
+  // Only ${vcs.local.file} has batch placeholders.
+  private static String batchKey(String repeatedKey) {
+    if (!VCS_LOCAL_FILE_KEY.equals(repeatedKey)) {
+      throw new IllegalArgumentException(String.format("No batch placeholder for [%s]", repeatedKey));
+    }
+    return VCS_LOCAL_FILES_KEY;
+  }
+
+  private static String batchListKey(String repeatedKey) {
+    if (!VCS_LOCAL_FILE_KEY.equals(repeatedKey)) {
+      throw new IllegalArgumentException(String.format("No batch placeholder for [%s]", repeatedKey));
+    }
+    return VCS_LOCAL_FILES_LIST_KEY;
+  }
+
+  public void addOutputListener(CommandOutputListener listener) {
+    outputListeners.add(listener);
+  }
+
+  public void removeOutputListener(CommandOutputListener listener) {
+    outputListeners.remove(listener);
+  }
+
+  CommandOutput createOutput(OutputConsumer consumer) throws VcsException {
+    return new CommandOutput(Integer.parseInt(getCommandProperties().getProperty(VCS_COMMAND_LINE_OUTPUT_MAX_BYTES, DEFAULT_OUTPUT_MAX_BYTES)),
+        outputListeners, consumer, log);
+  }
+
+  Executor createExecutor(OutputStream outputStream) throws VcsException {
+    if (EXECUTION_SESSION.equalsIgnoreCase(getCommandProperties().getProperty(VCS_COMMAND_LINE_EXECUTION))) {
+      return new ShellSessionExecutor(sessionPool(), outputStream);
+    }
+    DefaultExecutor executor = new DefaultExecutor();
+    executor.setStreamHandler(new PooledPumpStreamHandler(outputStream));
+    return executor;
+  }
+
+  private synchronized ShellSessionPool sessionPool() throws VcsException {
+    if (sessionPool == null) {
+      sessionPool = new ShellSessionPool(getCommandProperties().getProperty(VCS_COMMAND_LINE_SESSION_SHELL, DEFAULT_SHELL),
+          Integer.parseInt(getCommandProperties().getProperty(VCS_COMMAND_LINE_SESSION_POOL_SIZE, DEFAULT_SESSION_POOL_SIZE)));
+    }
+    return sessionPool;
+  }
+
+  private synchronized RevisionCache revisionCache() throws VcsException {
+    if (revisionCache == null) {
+      Properties properties = getCommandProperties();
+      revisionCache = new RevisionCache(Long.parseLong(properties.getProperty(VCS_COMMAND_LINE_REVISION_CACHE_TTL, "0")),
+          Boolean.parseBoolean(properties.getProperty(VCS_COMMAND_LINE_REVISION_CACHE_LOCAL, "false"))
+              ? properties.getProperty(VCS_COMMAND_LINE_REVISION_CACHE_METADATA, DEFAULT_METADATA_DIRECTORY) : null,
+          getImplementationName(), log);
+    }
+    return revisionCache;
+  }
+
+  private synchronized RevisionResolver revisionResolver() throws VcsException {
+    String name = getCommandProperties().getProperty(VCS_LOCAL_REVISION_RESOLVER);
+    if (isEmpty(name)) {
+      return null;
+    }
+    if (!name.trim().equals(revisionResolverName)) {
+      revisionResolver = createRevisionResolver(name.trim());
+      revisionResolverName = name.trim();
+    }
+    return revisionResolver;
+  }
+
+  private static RevisionResolver createRevisionResolver(String name) throws VcsException {
+    if (GitRevisionResolver.NAME.equalsIgnoreCase(name)) {
+      return new GitRevisionResolver();
+    }
+    try {
+      return Class.forName(name).asSubclass(RevisionResolver.class).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new VcsException(String.format("Failed to create revision resolver [%s]", name), e);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (sessionPool != null) {
+      sessionPool.close();
+      sessionPool = null;
+    }
+    if (hedgeExecutor != null) {
+      hedgeExecutor.shutdownNow();
+      hedgeExecutor = null;
+    }
+    if (groupExecutor != null) {
+      groupExecutor.shutdownNow();
+      groupExecutor = null;
+    }
+    if (revisionCache != null) {
+      revisionCache.close();
+      revisionCache = null;
+    }
+  }
+
+  private synchronized ExecutorService hedgeExecutor() {
+    if (hedgeExecutor == null) {
+      hedgeExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+          new ManagedThreadFactory(getImplementationName() + "-hedge"));
+    }
+    return hedgeExecutor;
+  }
+
+  private static boolean isAbandoned(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof AbandonedException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The exit value of the command that failed, null if the failure wasn't a command failing.
+   */
+  private static Integer exitValue(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof ExecuteException) {
+        return ((ExecuteException) cause).getExitValue();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Abandon whatever action the thread is running, killing the command in progress.
+   */
+  boolean abort(Thread thread) {
+    ActionContext context = running.get(thread);
+    if (context != null) {
+      context.abort();
+    }
+    return context != null;
+  }
+
+  void executeCommand(Executor executor, final CommandLine cmdLine) throws VcsException {
+    if (log.isDebugEnabled()) {
+      log.debug("Executing command [" + StringUtils.toString(cmdLine.toStrings(), " ") + "]");
+    }
     try {
       executor.execute(cmdLine);
     } catch (IOException e) {
-      final String message = String.format("Command [%s] failed.", StringUtils.toString(cmdLine.toStrings(), " "));
+      if (executor.getWatchdog() instanceof CommandWatchdog && ((CommandWatchdog) executor.getWatchdog()).isStopRequested()) {
+        log.trace("Command [{}] stopped, output no longer required", StringUtils.toString(cmdLine.toStrings(), " "));
+        return;
+      }
+      final String message;
+      if (executor.getWatchdog() instanceof CommandWatchdog && ((CommandWatchdog) executor.getWatchdog()).isAborted()) {
+        message = String.format("Command [%s] abandoned.", StringUtils.toString(cmdLine.toStrings(), " "));
+      } else if (executor.getWatchdog() != null && executor.getWatchdog().killedProcess()) {
+        message = String.format("Command [%s] timed out.", StringUtils.toString(cmdLine.toStrings(), " "));
+      } else {
+        message = String.format("Command [%s] failed.", StringUtils.toString(cmdLine.toStrings(), " "));
+      }
       log.error(message, e);
       throw new VcsException(message, e);
     }
@@ -247,25 +1103,177 @@ public class CommandLineVCS implements VersionControlSystem {
     List<String> results = new ArrayList<>();
     if (repeatedKey != null){
       for (Map.Entry<String, String> entry : substitutionMap.entrySet()) {
-        if (entry.getKey().startsWith(repeatedKey)) {
+        if (entry.getKey().startsWith(repeatedKey + ".")) {
           results.add(entry.getKey());
         }
       }
+      Collections.sort(results, (k1, k2) -> Long.compare(index(k1), index(k2)));
     }
     return results;
   }
 
+  private static long index(String repeatedKey) {
+    try {
+      return Long.parseLong(repeatedKey.substring(repeatedKey.lastIndexOf('.') + 1));
+    } catch (NumberFormatException e) {
+      return Long.MAX_VALUE;
+    }
+  }
+
+
+  /**
+   * Forget the compiled commands; they are also discarded automatically if the properties change.
+   */
+  public void invalidateCommands() {
+    commandCache = null;
+  }
+
+  CommandSequence getCommands(String filterKey) throws VcsException{
+    Properties properties = getCommandProperties();
+    CommandCache cache = commandCache;
+    if (cache == null || !cache.isFor(properties)) {
+      cache = new CommandCache(properties);
+      commandCache = cache;
+    }
+    try {
+      return cache.get(filterKey);
+    } catch (IllegalArgumentException e) {
+      throw new VcsException(String.format("%s: Commands for [%s] are invalid: %s", getImplementationName(), filterKey, e.getMessage()), e);
+    }
+  }
+
+  // The compiled commands for each action, tied to the contents of the properties they were compiled from.
+  private static final class CommandCache {
+    private final Properties properties;
+    private final int size;
+    private final int hashCode;
+    private final Map<String, CommandSequence> commands = new ConcurrentHashMap<>();
+
+    CommandCache(Properties properties) {
+      this.properties = properties;
+      size = properties.size();
+      hashCode = properties.hashCode();
+    }
+
+    boolean isFor(Properties other) {
+      return properties == other && size == other.size() && hashCode == other.hashCode();
+    }
+
+    CommandSequence get(String filterKey) {
+      return commands.computeIfAbsent(filterKey, key -> CommandSequence.compile(properties, key));
+    }
+  }
+
+  private static class AbandonedException extends VcsException {
+    private static final long serialVersionUID = 2024061101L;
+
+    AbandonedException(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+
+  private class HedgedAttempt implements Callable<String> {
+    private final CommandSequence commands;
+    private final Map<String, String> substitutionMap;
+    private final File workingDirectory;
+    private final LatencyWindow window;
+    private final long deadline;
+    private Thread thread;
+    private boolean cancelled;
 
-  private List<String> getCommands(String filterKey) throws VcsException{
-    SortedSet<String> keys = new TreeSet<>(PropertyHelper.getPropertySubset(getCommandProperties(), filterKey, true).stringPropertyNames());
-    List<String> commands = new ArrayList<>();
-    if (keys.size() == 0) {
-      return commands;
+    HedgedAttempt(CommandSequence commands, Map<String, String> substitutionMap, File workingDirectory, LatencyWindow window,
+                  long deadline) {
+      this.commands = commands;
+      this.substitutionMap = substitutionMap;
+      this.workingDirectory = workingDirectory;
+      this.window = window;
+      this.deadline = deadline;
     }
-    for (String key : keys) {
-      String command = getCommandProperties().getProperty(key);
-      commands.add(command);
+
+    @Override
+    public String call() throws VcsException {
+      synchronized (this) {
+        if (cancelled) {
+          throw new AbandonedException(String.format("%s: [%s] abandoned.", getImplementationName(), commands.getFilterKey()), null);
+        }
+        thread = Thread.currentThread();
+      }
+      try {
+        long start = System.currentTimeMillis();
+        String result = attempt(commands, substitutionMap, workingDirectory, null, null, false, deadline);
+        window.record(System.currentTimeMillis() - start);
+        return result;
+      } finally {
+        synchronized (this) {
+          thread = null;
+        }
+      }
+    }
+
+    // Only while it's running this attempt; the thread goes back to the pool afterwards.
+    synchronized void cancel() {
+      cancelled = true;
+      if (thread != null) {
+        abort(thread);
+      }
+    }
+  }
+
+  // State shared by the commands making up a single action.
+  private static final class ActionContext {
+    private final CommandSequence commands;
+    private final Executor executor;
+    private final CommandOutput output;
+    private final long deadline;
+    private final AtomicReference<CommandWatchdog> watchdog = new AtomicReference<>();
+    private final List<ActionContext> forks = new CopyOnWriteArrayList<>();
+    private volatile boolean stopRequested;
+    private volatile boolean aborted;
+
+    ActionContext(CommandSequence commands, Executor executor, CommandOutput output, long deadline) {
+      this.commands = commands;
+      this.executor = executor;
+      this.output = output;
+      this.deadline = deadline;
+    }
+
+    // A context for running a member of a group, sharing the same deadline.
+    ActionContext fork(Executor executor, CommandOutput output) {
+      ActionContext fork = new ActionContext(commands, executor, output, deadline);
+      forks.add(fork);
+      if (stopRequested) {
+        fork.requestStop();
+      }
+      return fork;
+    }
+
+    CommandWatchdog startWatchdog(long timeout) {
+      CommandWatchdog next = new CommandWatchdog(timeout > 0 ? timeout : ExecuteWatchdog.INFINITE_TIMEOUT);
+      watchdog.set(next);
+      executor.setWatchdog(next);
+      if (stopRequested) {
+        next.requestStop();
+      }
+      return next;
+    }
+
+    void requestStop() {
+      stopRequested = true;
+      CommandWatchdog current = watchdog.get();
+      if (current != null) {
+        current.requestStop();
+      }
+      forks.forEach(ActionContext::requestStop);
+    }
+
+    // Kill whatever is running and don't start anything else; unlike requestStop this is a failure.
+    void abort() {
+      aborted = true;
+      CommandWatchdog current = watchdog.get();
+      if (current != null) {
+        current.kill();
+      }
+      forks.forEach(ActionContext::abort);
     }
-    return commands;
   }
 }
@@ -3,6 +3,45 @@ package com.adaptris.vcs.commandline;
 public class CommandLineVCSConstants {
 
   public static final String VCS_COMMAND_LINE_TIMEOUT = "vcs.command.line.timeout";
+  public static final String VCS_COMMAND_LINE_BATCH_SIZE = "vcs.command.line.batch.size";
+  public static final String VCS_COMMAND_LINE_BATCH_MAX_LENGTH = "vcs.command.line.batch.max.length";
+  public static final String VCS_COMMAND_LINE_OUTPUT_MAX_BYTES = "vcs.command.line.output.max.bytes";
+  public static final String VCS_COMMAND_LINE_EXECUTION = "vcs.command.line.execution";
+  public static final String VCS_COMMAND_LINE_SESSION_SHELL = "vcs.command.line.session.shell";
+  public static final String VCS_COMMAND_LINE_SESSION_POOL_SIZE = "vcs.command.line.session.pool.size";
+  public static final String VCS_COMMAND_LINE_PARALLELISM = "vcs.command.line.parallelism";
+  public static final String VCS_COMMAND_LINE_ASYNC_THREADS = "vcs.command.line.async.threads";
+  public static final String VCS_COMMAND_LINE_METRICS_JMX = "vcs.command.line.metrics.jmx";
+  public static final String VCS_COMMAND_LINE_REVISION_CACHE_TTL = "vcs.command.line.revision.cache.ttl";
+  public static final String VCS_COMMAND_LINE_REVISION_CACHE_LOCAL = "vcs.command.line.revision.cache.local";
+  public static final String VCS_COMMAND_LINE_REVISION_CACHE_METADATA = "vcs.command.line.revision.cache.metadata";
+  public static final String VCS_COMMAND_LINE_LOCK = "vcs.command.line.lock";
+  public static final String VCS_COMMAND_LINE_LOCK_DIR = "vcs.command.line.lock.dir";
+  public static final String VCS_COMMAND_LINE_LOCK_TIMEOUT = "vcs.command.line.lock.timeout";
+  public static final String VCS_REMOTE_REVISION_PARALLELISM = "vcs.remote.revision.parallelism";
+  public static final String VCS_WORKING_COPY_PARALLELISM = "vcs.workingcopy.parallelism";
+  public static final String VCS_CONDITIONAL_UPDATE = "vcs.conditional.update";
+  public static final String VCS_BACKGROUND_UPDATE = "vcs.background.update";
+  public static final String VCS_BACKGROUND_UPDATE_SWAP = "vcs.background.update.swap";
+  public static final String VCS_POLL_INTERVAL = "vcs.poll.interval";
+  public static final String VCS_POLL_JITTER = "vcs.poll.jitter";
+  public static final String VCS_POLL_BACKOFF_MAX = "vcs.poll.backoff.max";
+  public static final String VCS_CHECKOUT_PROFILE = "vcs.checkout.profile";
+  public static final String VCS_CHECKOUT_DEPTH = "vcs.checkout.depth";
+  public static final String VCS_CHECKOUT_SINGLE_BRANCH = "vcs.checkout.single.branch";
+  public static final String VCS_CHECKOUT_FILTER = "vcs.checkout.filter";
+  public static final String VCS_CHECKOUT_SPARSE_PATHS = "vcs.checkout.sparse.paths";
+  public static final String VCS_LOCAL_REVISION_RESOLVER = "vcs.local.revision.resolver";
+  public static final String VCS_CHANGED_FILES = "vcs.changed.files";
+  public static final String VCS_SNAPSHOT_FILE = "vcs.snapshot.file";
+  public static final String VCS_MIRROR_DIR = "vcs.mirror.dir";
+  public static final String VCS_MIRROR_REFRESH_INTERVAL = "vcs.mirror.refresh.interval";
+
+  public static final String EXECUTION_PROCESS = "process";
+  public static final String EXECUTION_SESSION = "session";
+
+  public static final String CHANGED_FILES_COMMAND = "command";
+  public static final String CHANGED_FILES_INDEX = "index";
 
   public static final String VCS_COMMAND_LINE_TEST_CONNECTION = "vcs.command.line.test.connection";
   public static final String VCS_COMMAND_LINE_CHECKOUT = "vcs.command.line.checkout";
@@ -13,9 +52,20 @@ public class CommandLineVCSConstants {
   public static final String VCS_COMMAND_LINE_REMOTE_REVISION = "vcs.command.line.remote.revision";
   public static final String VCS_COMMAND_LINE_LOCAL_REVISION = "vcs.command.line.local.revision";
   public static final String VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY = "vcs.command.line.remote.history";
+  public static final String VCS_COMMAND_LINE_VALIDATE = "vcs.command.line.validate";
+  public static final String VCS_COMMAND_LINE_MIRROR_CREATE = "vcs.command.line.mirror.create";
+  public static final String VCS_COMMAND_LINE_MIRROR_UPDATE = "vcs.command.line.mirror.update";
+  public static final String VCS_COMMAND_LINE_CHANGED_FILES = "vcs.command.line.changed.files";
+  public static final String VCS_COMMAND_LINE_STAGING = "vcs.command.line.staging";
 
   public static final String VCS_COMMIT_MESSAGE_KEY = "vcs.commit.message";
   public static final String VCS_LOCAL_FILE_KEY = "vcs.local.file";
+  public static final String VCS_LOCAL_FILES_KEY = "vcs.local.files";
+  public static final String VCS_LOCAL_FILES_LIST_KEY = "vcs.local.files.list";
   public static final String VCS_LIMIT_KEY = "vcs.limit";
+  public static final String VCS_MIRROR_URL_KEY = "vcs.mirror.url";
+  public static final String VCS_STAGING_URL_KEY = "vcs.staging.url";
+  public static final String VCS_PREVIOUS_REVISION_KEY = "vcs.previous.revision";
+  public static final String VCS_CURRENT_REVISION_KEY = "vcs.current.revision";
 
 }
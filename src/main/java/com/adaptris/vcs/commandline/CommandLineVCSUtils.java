@@ -5,9 +5,14 @@ import com.adaptris.core.management.vcs.VcsException;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 class CommandLineVCSUtils {
 
+  private static final int MAX_NAME_LENGTH = 64;
+
   private CommandLineVCSUtils(){
 
   }
@@ -29,4 +34,36 @@ class CommandLineVCSUtils {
       throw new VcsException(e);
     }
   }
+
+  /**
+   * A file name for the value; readable, but with a digest so that different values can't collide.
+   */
+  static String safeName(String value) {
+    return safeName(value, value);
+  }
+
+  /**
+   * As {@link #safeName(String)}, but readable as {@code display} rather than the value itself (which might hold
+   * something that shouldn't appear in a directory listing).
+   */
+  static String safeName(String display, String value) {
+    String readable = display.replaceAll("[^A-Za-z0-9._-]+", "_");
+    if (readable.length() > MAX_NAME_LENGTH) {
+      readable = readable.substring(readable.length() - MAX_NAME_LENGTH);
+    }
+    return readable + "-" + digest(value);
+  }
+
+  private static String digest(String value) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (int i = 0; i < 6; i++) {
+        hex.append(String.format("%02x", digest[i]));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      return Integer.toHexString(value.hashCode());
+    }
+  }
 }
@@ -0,0 +1,93 @@
+package com.adaptris.vcs.commandline;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects {@link CommandStatistics} for each action and step.
+ * <p>
+ * {@link #jmx()} is a single instance, shared by every {@link CommandLineVCS} with
+ * {@code vcs.command.line.metrics.jmx=true}, registered with the platform MBean server as
+ * {@value CommandMetricsMXBean#OBJECT_NAME}.
+ * </p>
+ */
+public class CommandMetrics implements CommandMetricsListener, CommandMetricsMXBean {
+
+  private static final Logger log = LoggerFactory.getLogger(CommandMetrics.class);
+  private static CommandMetrics jmx;
+
+  private final Map<String, CommandStatistics> actions = new ConcurrentHashMap<>();
+  private final Map<String, CommandStatistics> steps = new ConcurrentHashMap<>();
+
+  public static synchronized CommandMetrics jmx() {
+    if (jmx == null) {
+      jmx = new CommandMetrics();
+      try {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+          server.registerMBean(jmx, name);
+        }
+      } catch (JMException e) {
+        log.warn("Failed to register [{}]", OBJECT_NAME, e);
+      }
+    }
+    return jmx;
+  }
+
+  @Override
+  public void commandExecuted(CommandExecution execution) {
+    steps.computeIfAbsent(execution.getStep(), k -> new CommandStatistics()).record(execution);
+  }
+
+  @Override
+  public void actionCompleted(String action, long wallTimeMillis, boolean succeeded) {
+    actions.computeIfAbsent(action, k -> new CommandStatistics()).record(wallTimeMillis, succeeded);
+  }
+
+  @Override
+  public Map<String, CommandStatistics> getActions() {
+    return Collections.unmodifiableMap(new TreeMap<>(actions));
+  }
+
+  @Override
+  public Map<String, CommandStatistics> getSteps() {
+    return Collections.unmodifiableMap(new TreeMap<>(steps));
+  }
+
+  @Override
+  public long getThreadsStarted() {
+    return CommandThreads.getThreadsStarted();
+  }
+
+  @Override
+  public long getThreadTasks() {
+    return CommandThreads.getTasks();
+  }
+
+  @Override
+  public long getOverflowThreadTasks() {
+    return CommandThreads.getOverflowTasks();
+  }
+
+  @Override
+  public int getPooledThreads() {
+    return CommandThreads.getPooledThreads();
+  }
+
+  @Override
+  public void reset() {
+    actions.clear();
+    steps.clear();
+  }
+}
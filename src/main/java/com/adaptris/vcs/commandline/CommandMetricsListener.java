@@ -0,0 +1,18 @@
+package com.adaptris.vcs.commandline;
+
+/**
+ * Notified of every command executed by {@link CommandLineVCS}, and of every action once all its commands are done.
+ */
+@FunctionalInterface
+public interface CommandMetricsListener {
+
+  void commandExecuted(CommandExecution execution);
+
+  /**
+   * @param action the action, e.g. {@code vcs.command.line.checkout}.
+   * @param wallTimeMillis how long the whole action took.
+   * @param succeeded whether every command succeeded.
+   */
+  default void actionCompleted(String action, long wallTimeMillis, boolean succeeded) {
+  }
+}
@@ -0,0 +1,47 @@
+package com.adaptris.vcs.commandline;
+
+import java.util.Map;
+
+/**
+ * Management interface for {@link CommandMetrics}.
+ */
+public interface CommandMetricsMXBean {
+
+  String OBJECT_NAME = "com.adaptris:type=VcsCommandMetrics,id=CommandLine";
+
+  /**
+   * Statistics for each action, keyed by action (e.g. {@code vcs.command.line.checkout}).
+   */
+  Map<String, CommandStatistics> getActions();
+
+  /**
+   * Statistics for each step, keyed by step (e.g. {@code vcs.command.line.checkout.2}).
+   */
+  Map<String, CommandStatistics> getSteps();
+
+  /**
+   * Threads started to run commands (to copy their output, or time them out), since the JVM started.
+   */
+  long getThreadsStarted();
+
+  /**
+   * Tasks (output copies and timeouts) run for commands since the JVM started; the more of these per thread started
+   * the better threads are being reused.
+   */
+  long getThreadTasks();
+
+  /**
+   * Tasks that found every pooled thread busy, and had a thread started for them.
+   */
+  long getOverflowThreadTasks();
+
+  /**
+   * Threads currently in the shared pool, busy or idle.
+   */
+  int getPooledThreads();
+
+  /**
+   * Clear the action and step statistics; thread counts are never reset.
+   */
+  void reset();
+}
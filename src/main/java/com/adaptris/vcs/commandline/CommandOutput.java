@@ -0,0 +1,183 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collection;
+
+import org.slf4j.Logger;
+
+/**
+ * Collects command output.
+ * <p>
+ * Only the last {@code maxBytes} of output are retained (in a ring buffer) for the result; output is split into lines
+ * as it arrives and handed to any {@link CommandOutputListener}s and the trace log so that the full output never
+ * needs to be held in memory.
+ * </p>
+ */
+class CommandOutput extends OutputStream {
+
+  private static final int INITIAL_CAPACITY = 256;
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+  private final int maxBytes;
+  private final Collection<CommandOutputListener> listeners;
+  private final OutputConsumer consumer;
+  private final Logger log;
+  private Runnable stopHook;
+  private boolean stopped;
+
+  private byte[] buffer;
+  private int start;
+  private int size;
+  private long total;
+
+  private final byte[] line = new byte[MAX_LINE_LENGTH];
+  private int lineLength;
+  private String command;
+
+  CommandOutput(int maxBytes, Collection<CommandOutputListener> listeners, Logger log) {
+    this(maxBytes, listeners, null, log);
+  }
+
+  CommandOutput(int maxBytes, Collection<CommandOutputListener> listeners, OutputConsumer consumer, Logger log) {
+    this.maxBytes = maxBytes > 0 ? maxBytes : Integer.MAX_VALUE - 8;
+    this.listeners = listeners;
+    this.consumer = consumer;
+    this.log = log;
+    buffer = new byte[Math.min(this.maxBytes, INITIAL_CAPACITY)];
+  }
+
+  /**
+   * Mark the start of a new command; any incomplete line from the previous command is emitted.
+   */
+  synchronized void startCommand(String command) {
+    endCommand();
+    this.command = command;
+  }
+
+  synchronized void endCommand() {
+    if (lineLength > 0) {
+      emitLine();
+    }
+  }
+
+  @Override
+  public synchronized void write(int b) {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) {
+    if (len <= 0) {
+      return;
+    }
+    total += len;
+    if (isLineConsumed()) {
+      scanLines(b, off, len);
+    }
+    retain(b, off, len);
+  }
+
+  /**
+   * What to do once the consumer has everything it wants; typically kill the running process.
+   */
+  synchronized void onStop(Runnable stopHook) {
+    this.stopHook = stopHook;
+  }
+
+  synchronized boolean isStopped() {
+    return stopped;
+  }
+
+  synchronized long getTotalBytes() {
+    return total;
+  }
+
+  synchronized boolean isTruncated() {
+    return total > size;
+  }
+
+  synchronized byte[] toByteArray() {
+    byte[] result = new byte[size];
+    int first = Math.min(size, buffer.length - start);
+    System.arraycopy(buffer, start, result, 0, first);
+    System.arraycopy(buffer, 0, result, first, size - first);
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return new String(toByteArray(), Charset.defaultCharset());
+  }
+
+  private boolean isLineConsumed() {
+    return consumer != null || !listeners.isEmpty() || log.isTraceEnabled();
+  }
+
+  private void scanLines(byte[] b, int off, int len) {
+    for (int i = off; i < off + len; i++) {
+      byte c = b[i];
+      if (c == '\n' || c == '\r') {
+        // \r\n or a progress meter's \r don't produce empty lines.
+        if (lineLength > 0) {
+          emitLine();
+        }
+      } else if (lineLength < MAX_LINE_LENGTH) {
+        line[lineLength++] = c;
+      }
+    }
+  }
+
+  private void emitLine() {
+    String text = new String(line, 0, lineLength, Charset.defaultCharset());
+    lineLength = 0;
+    log.trace("[{}]: {}", command, text);
+    for (CommandOutputListener listener : listeners) {
+      try {
+        listener.outputLine(command, text);
+      } catch (RuntimeException e) {
+        log.warn("Output listener [{}] failed", listener, e);
+      }
+    }
+    if (consumer != null && !stopped) {
+      consumer.outputLine(command, text);
+      if (consumer.isComplete()) {
+        stopped = true;
+        if (stopHook != null) {
+          stopHook.run();
+        }
+      }
+    }
+  }
+
+  private void retain(byte[] b, int off, int len) {
+    if (len > maxBytes) {
+      off += len - maxBytes;
+      len = maxBytes;
+    }
+    grow(Math.min(maxBytes, size + len));
+    int capacity = buffer.length;
+    int tail = (start + size) % capacity;
+    int first = Math.min(len, capacity - tail);
+    System.arraycopy(b, off, buffer, tail, first);
+    System.arraycopy(b, off + first, buffer, 0, len - first);
+    int overflow = size + len - capacity;
+    if (overflow > 0) {
+      start = (start + overflow) % capacity;
+      size = capacity;
+    } else {
+      size += len;
+    }
+  }
+
+  private void grow(int required) {
+    if (required <= buffer.length) {
+      return;
+    }
+    int capacity = (int) Math.min(maxBytes, Math.max(required, 2L * buffer.length));
+    byte[] grown = toByteArray();
+    buffer = new byte[capacity];
+    System.arraycopy(grown, 0, buffer, 0, grown.length);
+    start = 0;
+  }
+}
@@ -0,0 +1,14 @@
+package com.adaptris.vcs.commandline;
+
+/**
+ * Receives the output of each command executed by {@link CommandLineVCS}, a line at a time, as it is produced.
+ */
+@FunctionalInterface
+public interface CommandOutputListener {
+
+  /**
+   * @param command the command, as configured, that produced the output.
+   * @param line a line of output (stdout or stderr) without its line terminator.
+   */
+  void outputLine(String command, String line);
+}
@@ -0,0 +1,189 @@
+package com.adaptris.vcs.commandline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.adaptris.core.util.PropertyHelper;
+
+/**
+ * The compiled commands for an action, in key order, along with any settings for the action or its steps.
+ * <p>
+ * {@code vcs.command.line.checkout.2=...} is a step; {@code vcs.command.line.checkout.2.timeout=...} is a setting for
+ * that step and {@code vcs.command.line.checkout.timeout=...} a setting for the action as a whole. Consecutive
+ * steps with the same {@code group} are independent of each other and may be run in parallel.
+ * </p>
+ */
+final class CommandSequence {
+
+  static final String TIMEOUT = "timeout";
+  static final String GROUP = "group";
+  static final String RETRY_ATTEMPTS = "retry.attempts";
+  static final String RETRY_BACKOFF = "retry.backoff";
+  static final String RETRY_BACKOFF_MAX = "retry.backoff.max";
+  static final String RETRY_EXIT_CODES = "retry.exit.codes";
+  static final String HEDGE_AFTER = "hedge.after";
+  static final String HEDGE_PERCENTILE = "hedge.percentile";
+
+  private static final List<String> ATTRIBUTES = Arrays.asList(TIMEOUT, GROUP, RETRY_ATTEMPTS, RETRY_BACKOFF, RETRY_BACKOFF_MAX,
+      RETRY_EXIT_CODES, HEDGE_AFTER, HEDGE_PERCENTILE);
+
+  private final String filterKey;
+  private final List<Step> steps;
+  private final List<List<Step>> stages;
+  private final Map<String, String> attributes;
+
+  private CommandSequence(String filterKey, List<Step> steps, Map<String, String> attributes) {
+    this.filterKey = filterKey;
+    this.steps = Collections.unmodifiableList(steps);
+    this.attributes = Collections.unmodifiableMap(attributes);
+    stages = Collections.unmodifiableList(stages(steps));
+  }
+
+  // Consecutive steps in the same group form a single stage.
+  private static List<List<Step>> stages(List<Step> steps) {
+    List<List<Step>> result = new ArrayList<>();
+    List<Step> stage = null;
+    for (Step step : steps) {
+      if (stage == null || step.getGroup() == null || !step.getGroup().equals(stage.get(0).getGroup())) {
+        stage = new ArrayList<>();
+        result.add(stage);
+      }
+      stage.add(step);
+    }
+    return result;
+  }
+
+  static CommandSequence compile(Properties properties, String filterKey) {
+    Properties subset = PropertyHelper.getPropertySubset(properties, filterKey, true);
+    SortedMap<String, String> commands = new TreeMap<>();
+    Map<String, Map<String, String>> stepAttributes = new HashMap<>();
+    Map<String, String> actionAttributes = new HashMap<>();
+    for (String key : subset.stringPropertyNames()) {
+      String value = subset.getProperty(key);
+      String name = key.length() > filterKey.length() + 1 && key.charAt(filterKey.length()) == '.'
+          ? key.substring(filterKey.length() + 1) : null;
+      if (name != null && ATTRIBUTES.contains(name)) {
+        actionAttributes.put(name, value);
+        continue;
+      }
+      String attribute = name != null ? stepAttribute(name) : null;
+      if (attribute != null) {
+        String step = key.substring(0, key.length() - attribute.length() - 1);
+        stepAttributes.computeIfAbsent(step, k -> new HashMap<>()).put(attribute, value);
+        continue;
+      }
+      commands.put(key, value);
+    }
+    List<Step> steps = new ArrayList<>(commands.size());
+    for (Map.Entry<String, String> command : commands.entrySet()) {
+      Map<String, String> attributes = stepAttributes.get(command.getKey());
+      steps.add(new Step(command.getKey(), CommandTemplate.compile(command.getValue()),
+          attributes != null ? attributes : Collections.<String, String>emptyMap()));
+    }
+    return new CommandSequence(filterKey, steps, actionAttributes);
+  }
+
+  private static String stepAttribute(String name) {
+    for (String attribute : ATTRIBUTES) {
+      if (name.endsWith("." + attribute)) {
+        return attribute;
+      }
+    }
+    return null;
+  }
+
+  String getFilterKey() {
+    return filterKey;
+  }
+
+  List<Step> getSteps() {
+    return steps;
+  }
+
+  /**
+   * The steps to run in turn; the steps within a stage can be run at the same time.
+   */
+  List<List<Step>> getStages() {
+    return stages;
+  }
+
+  int size() {
+    return steps.size();
+  }
+
+  boolean references(String key) {
+    for (Step step : steps) {
+      if (step.getTemplate().references(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The overall time budget for the action, or {@code -1} if there isn't one.
+   */
+  long getTimeout() {
+    return toLong(attributes.get(TIMEOUT), -1);
+  }
+
+  /**
+   * A setting for the action as a whole, or null if it isn't set.
+   */
+  String getAttribute(String name) {
+    String value = attributes.get(name);
+    return value != null && !value.trim().isEmpty() ? value.trim() : null;
+  }
+
+  long getAttribute(String name, long defaultValue) {
+    return toLong(attributes.get(name), defaultValue);
+  }
+
+  private static long toLong(String value, long defaultValue) {
+    return value != null && !value.trim().isEmpty() ? Long.parseLong(value.trim()) : defaultValue;
+  }
+
+  static final class Step {
+    private final String key;
+    private final CommandTemplate template;
+    private final Map<String, String> attributes;
+
+    private Step(String key, CommandTemplate template, Map<String, String> attributes) {
+      this.key = key;
+      this.template = template;
+      this.attributes = Collections.unmodifiableMap(attributes);
+    }
+
+    String getKey() {
+      return key;
+    }
+
+    CommandTemplate getTemplate() {
+      return template;
+    }
+
+    /**
+     * The timeout for each execution of this step, or {@code defaultTimeout} if not set.
+     */
+    long getTimeout(long defaultTimeout) {
+      return toLong(attributes.get(TIMEOUT), defaultTimeout);
+    }
+
+    String getGroup() {
+      String group = attributes.get(GROUP);
+      return group != null && !group.trim().isEmpty() ? group.trim() : null;
+    }
+
+    @Override
+    public String toString() {
+      return key;
+    }
+  }
+}
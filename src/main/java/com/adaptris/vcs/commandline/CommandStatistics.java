@@ -0,0 +1,86 @@
+package com.adaptris.vcs.commandline;
+
+/**
+ * Running totals for an action or a step, as exposed by {@link CommandMetricsMXBean}.
+ */
+public class CommandStatistics {
+
+  private long count;
+  private long failures;
+  private long timeouts;
+  private long aborts;
+  private long totalWallTime;
+  private long maxWallTime;
+  private long lastWallTime;
+  private long totalSpawnLatency;
+  private long spawned;
+  private long outputBytes;
+
+  synchronized void record(long wallTime, boolean succeeded) {
+    count++;
+    if (!succeeded) {
+      failures++;
+    }
+    totalWallTime += wallTime;
+    maxWallTime = Math.max(maxWallTime, wallTime);
+    lastWallTime = wallTime;
+  }
+
+  synchronized void record(CommandExecution execution) {
+    record(execution.getWallTimeMillis(), execution.isSucceeded());
+    if (execution.isTimedOut()) {
+      timeouts++;
+    }
+    if (execution.isAborted()) {
+      aborts++;
+    }
+    if (execution.getSpawnLatencyMillis() >= 0) {
+      totalSpawnLatency += execution.getSpawnLatencyMillis();
+      spawned++;
+    }
+    outputBytes += execution.getOutputBytes();
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  public synchronized long getFailures() {
+    return failures;
+  }
+
+  public synchronized long getTimeouts() {
+    return timeouts;
+  }
+
+  /**
+   * Commands killed because they were no longer wanted; not counted as timeouts.
+   */
+  public synchronized long getAborts() {
+    return aborts;
+  }
+
+  public synchronized long getTotalWallTimeMillis() {
+    return totalWallTime;
+  }
+
+  public synchronized long getMaxWallTimeMillis() {
+    return maxWallTime;
+  }
+
+  public synchronized long getLastWallTimeMillis() {
+    return lastWallTime;
+  }
+
+  public synchronized long getAverageWallTimeMillis() {
+    return count > 0 ? totalWallTime / count : 0;
+  }
+
+  public synchronized long getAverageSpawnLatencyMillis() {
+    return spawned > 0 ? totalSpawnLatency / spawned : 0;
+  }
+
+  public synchronized long getOutputBytes() {
+    return outputBytes;
+  }
+}
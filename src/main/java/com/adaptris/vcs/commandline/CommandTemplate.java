@@ -0,0 +1,215 @@
+package com.adaptris.vcs.commandline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.util.StringUtils;
+
+/**
+ * A command parsed once, with the positions of its {@code ${placeholders}} worked out in advance.
+ * <p>
+ * Rendering gives the same result as {@code CommandLine.parse(command)} with a substitution map, without
+ * re-tokenising the command or re-scanning arguments that have nothing to substitute.
+ * </p>
+ */
+final class CommandTemplate {
+
+  private final String command;
+  private final Token executable;
+  private final Token[] arguments;
+  private final Set<String> placeholders;
+
+  private CommandTemplate(String command, Token executable, Token[] arguments, Set<String> placeholders) {
+    this.command = command;
+    this.executable = executable;
+    this.arguments = arguments;
+    this.placeholders = placeholders;
+  }
+
+  static CommandTemplate compile(String command) {
+    List<String> tokens = tokenize(command);
+    if (tokens.isEmpty() || tokens.get(0).trim().isEmpty()) {
+      throw new IllegalArgumentException("Command line can not be empty");
+    }
+    Set<String> placeholders = new HashSet<>();
+    Token executable = Token.compile(StringUtils.fixFileSeparatorChar(tokens.get(0)), false, placeholders);
+    Token[] arguments = new Token[tokens.size() - 1];
+    for (int i = 1; i < tokens.size(); i++) {
+      arguments[i - 1] = Token.compile(tokens.get(i).trim(), true, placeholders);
+    }
+    return new CommandTemplate(command, executable, arguments, Collections.unmodifiableSet(placeholders));
+  }
+
+  String getCommand() {
+    return command;
+  }
+
+  boolean references(String key) {
+    return placeholders.contains(key);
+  }
+
+  CommandLine toCommandLine(Map<String, String> substitutions) {
+    return toCommandLine(substitutions, null, null);
+  }
+
+  /**
+   * Render the command; an argument that is exactly {@code ${listKey}} is expanded into one argument per value.
+   */
+  CommandLine toCommandLine(Map<String, String> substitutions, String listKey, List<String> values) {
+    CommandLine commandLine = new CommandLine(StringUtils.fixFileSeparatorChar(executable.render(substitutions)));
+    for (Token argument : arguments) {
+      if (listKey != null && argument.isOnly(listKey)) {
+        for (String value : values) {
+          commandLine.addArgument(StringUtils.quoteArgument(value), false);
+        }
+      } else {
+        commandLine.addArgument(argument.render(substitutions), false);
+      }
+    }
+    return commandLine;
+  }
+
+  @Override
+  public String toString() {
+    return command;
+  }
+
+  // Identical to the (private) CommandLine.translateCommandline.
+  private static List<String> tokenize(String toProcess) {
+    final int normal = 0;
+    final int inQuote = 1;
+    final int inDoubleQuote = 2;
+    int state = normal;
+    StringTokenizer tok = new StringTokenizer(toProcess, "\"\' ", true);
+    List<String> list = new ArrayList<>();
+    StringBuilder current = new StringBuilder();
+    boolean lastTokenHasBeenQuoted = false;
+    while (tok.hasMoreTokens()) {
+      String nextTok = tok.nextToken();
+      switch (state) {
+        case inQuote:
+          if ("\'".equals(nextTok)) {
+            lastTokenHasBeenQuoted = true;
+            state = normal;
+          } else {
+            current.append(nextTok);
+          }
+          break;
+        case inDoubleQuote:
+          if ("\"".equals(nextTok)) {
+            lastTokenHasBeenQuoted = true;
+            state = normal;
+          } else {
+            current.append(nextTok);
+          }
+          break;
+        default:
+          if ("\'".equals(nextTok)) {
+            state = inQuote;
+          } else if ("\"".equals(nextTok)) {
+            state = inDoubleQuote;
+          } else if (" ".equals(nextTok)) {
+            if (lastTokenHasBeenQuoted || current.length() != 0) {
+              list.add(current.toString());
+              current = new StringBuilder();
+            }
+          } else {
+            current.append(nextTok);
+          }
+          lastTokenHasBeenQuoted = false;
+          break;
+      }
+    }
+    if (lastTokenHasBeenQuoted || current.length() != 0) {
+      list.add(current.toString());
+    }
+    if (state == inQuote || state == inDoubleQuote) {
+      throw new IllegalArgumentException("Unbalanced quotes in " + toProcess);
+    }
+    return list;
+  }
+
+  /**
+   * Alternating literal text and placeholder names; {@code parts[0]} is literal, {@code parts[1]} a placeholder and
+   * so on.
+   */
+  private static final class Token {
+    private final String[] parts;
+    private final boolean quote;
+    private final String constant;
+
+    private Token(String[] parts, boolean quote) {
+      this.parts = parts;
+      this.quote = quote;
+      constant = parts.length == 1 ? finish(parts[0]) : null;
+    }
+
+    static Token compile(String token, boolean quote, Set<String> placeholders) {
+      List<String> parts = new ArrayList<>();
+      StringBuilder literal = new StringBuilder();
+      int i = 0;
+      while (i < token.length()) {
+        int start = token.indexOf("${", i);
+        int end = start >= 0 ? nameEnd(token, start + 2) : -1;
+        if (start < 0 || end >= token.length() || token.charAt(end) != '}') {
+          literal.append(token, i, token.length());
+          break;
+        }
+        literal.append(token, i, start);
+        parts.add(literal.toString());
+        literal.setLength(0);
+        String name = token.substring(start + 2, end);
+        parts.add(name);
+        placeholders.add(name);
+        i = end + 1;
+      }
+      parts.add(literal.toString());
+      return new Token(parts.toArray(new String[0]), quote);
+    }
+
+    // Placeholder names are restricted to the same characters as StringUtils.stringSubstitution.
+    private static int nameEnd(String token, int from) {
+      int i = from;
+      while (i < token.length()) {
+        char ch = token.charAt(i);
+        if (ch == '_' || ch == '.' || ch == '-' || ch == '+' || Character.isLetterOrDigit(ch)) {
+          i++;
+        } else {
+          break;
+        }
+      }
+      return i;
+    }
+
+    boolean isOnly(String name) {
+      return parts.length == 3 && parts[0].isEmpty() && parts[2].isEmpty() && parts[1].equals(name);
+    }
+
+    String render(Map<String, String> substitutions) {
+      if (constant != null) {
+        return constant;
+      }
+      StringBuilder result = new StringBuilder(parts[0]);
+      for (int i = 1; i < parts.length; i += 2) {
+        String value = substitutions != null ? substitutions.get(parts[i]) : null;
+        if (value != null) {
+          result.append(value);
+        } else {
+          result.append("${").append(parts[i]).append('}');
+        }
+        result.append(parts[i + 1]);
+      }
+      return finish(result.toString());
+    }
+
+    private String finish(String value) {
+      return quote ? StringUtils.quoteArgument(value) : value;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package com.adaptris.vcs.commandline;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Threads shared by every command in the JVM, so that running a command doesn't start (and throw away) threads of
+ * its own: a pool for copying output and a single scheduler thread for timeouts.
+ * <p>
+ * The pool keeps up to {@value #MAX_POOLED_THREADS} threads; beyond that a task gets a thread to itself rather than
+ * waiting, since a pump that is held up (e.g. by a slow reader) mustn't hold up anyone else's command. The counts
+ * are reported by {@link CommandMetricsMXBean}.
+ * </p>
+ */
+final class CommandThreads {
+
+  private static final int MAX_POOLED_THREADS = 64;
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private static final AtomicLong THREADS_STARTED = new AtomicLong();
+  private static final AtomicLong TASKS = new AtomicLong();
+  private static final AtomicLong OVERFLOW_TASKS = new AtomicLong();
+
+  private static final ThreadPoolExecutor POOL;
+  private static final ScheduledThreadPoolExecutor SCHEDULER;
+
+  static {
+    POOL = new ThreadPoolExecutor(0, MAX_POOLED_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        factory("vcs-command"), (task, pool) -> {
+          OVERFLOW_TASKS.incrementAndGet();
+          newThread("vcs-command-overflow", task).start();
+        });
+    SCHEDULER = new ScheduledThreadPoolExecutor(1, factory("vcs-command-timer"));
+    SCHEDULER.setRemoveOnCancelPolicy(true);
+    SCHEDULER.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+    SCHEDULER.allowCoreThreadTimeOut(true);
+  }
+
+  private CommandThreads() {
+  }
+
+  static void execute(Runnable task) {
+    TASKS.incrementAndGet();
+    POOL.execute(task);
+  }
+
+  /**
+   * Run the task on the pool after the delay; the scheduler thread only keeps time.
+   */
+  static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+    return SCHEDULER.schedule(() -> execute(task), delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  static Thread newThread(String name, Runnable task) {
+    THREADS_STARTED.incrementAndGet();
+    Thread thread = new Thread(task, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /**
+   * Threads started for commands so far; compare with {@link #getTasks()} to see how often threads are reused.
+   */
+  static long getThreadsStarted() {
+    return THREADS_STARTED.get();
+  }
+
+  static long getTasks() {
+    return TASKS.get();
+  }
+
+  /**
+   * Tasks that found every pooled thread busy and had a thread started for them.
+   */
+  static long getOverflowTasks() {
+    return OVERFLOW_TASKS.get();
+  }
+
+  static int getPooledThreads() {
+    return POOL.getPoolSize();
+  }
+
+  private static ThreadFactory factory(String name) {
+    AtomicLong count = new AtomicLong();
+    return task -> newThread(name + "-" + count.incrementAndGet(), task);
+  }
+}
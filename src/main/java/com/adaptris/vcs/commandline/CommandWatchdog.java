@@ -0,0 +1,109 @@
+package com.adaptris.vcs.commandline;
+
+import java.util.concurrent.ScheduledFuture;
+
+import org.apache.commons.exec.ExecuteWatchdog;
+
+/**
+ * {@link ExecuteWatchdog} that can also be asked to stop the process because we have all the output we need, which
+ * shouldn't be reported as a failure.
+ * <p>
+ * Either way the whole process tree is killed, so that nothing is left holding the output open once the command
+ * has been abandoned.
+ * </p>
+ * <p>
+ * Rather than a thread of its own, the timeout is kept by {@link CommandThreads}' shared scheduler.
+ * </p>
+ */
+class CommandWatchdog extends ExecuteWatchdog {
+
+  private volatile boolean stopRequested;
+  private volatile boolean timedOut;
+  private volatile boolean aborted;
+  private volatile long startedAt = -1;
+  private boolean killPending;
+  private final long timeout;
+  private ScheduledFuture<?> deadline;
+
+  CommandWatchdog(long timeout) {
+    super(INFINITE_TIMEOUT);
+    this.timeout = timeout;
+  }
+
+  @Override
+  public synchronized void start(Process process) {
+    startedAt = System.nanoTime();
+    super.start(ProcessTree.killable(process));
+    if (timeout > 0) {
+      deadline = CommandThreads.schedule(this::timeUp, timeout);
+    }
+    if (killPending) {
+      destroyProcess();
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (deadline != null) {
+      deadline.cancel(false);
+      deadline = null;
+    }
+    super.stop();
+  }
+
+  /**
+   * When the process started ({@link System#nanoTime()}), or {@code -1} if it hasn't.
+   */
+  long getStartedAt() {
+    return startedAt;
+  }
+
+  private synchronized void timeUp() {
+    if (!aborted && !stopRequested) {
+      timedOut = true;
+    }
+    timeoutOccured(null);
+  }
+
+  void requestStop() {
+    stopRequested = true;
+    destroy();
+  }
+
+  /**
+   * Kill the process because it's no longer wanted (a failure, unlike {@link #requestStop()}, but not a timeout); or,
+   * if it hasn't started yet, as soon as it does rather than waiting for it to.
+   */
+  synchronized void kill() {
+    if (!timedOut && !stopRequested) {
+      aborted = true;
+    }
+    destroy();
+  }
+
+  private synchronized void destroy() {
+    if (startedAt < 0) {
+      killPending = true;
+    } else if (isWatching()) {
+      destroyProcess();
+    }
+  }
+
+  boolean isStopRequested() {
+    return stopRequested;
+  }
+
+  /**
+   * True if the process was killed for taking too long.
+   */
+  boolean isTimedOut() {
+    return timedOut && killedProcess();
+  }
+
+  /**
+   * True if the process was killed because it was no longer wanted, e.g. cancelled or beaten by a hedged attempt.
+   */
+  boolean isAborted() {
+    return aborted && killedProcess();
+  }
+}
@@ -0,0 +1,97 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+/**
+ * Reads {@code HEAD} (and the ref it points to, loose or packed) straight out of the {@code .git} directory; the same
+ * answer as {@code git rev-parse HEAD}.
+ * <p>
+ * Linked worktrees and submodules, whose {@code .git} is a file pointing elsewhere, are followed. Anything unusual
+ * (an unborn branch, a ref that is neither loose nor packed, a reftable repository) is left to the command.
+ * </p>
+ */
+final class GitRevisionResolver implements RevisionResolver {
+
+  static final String NAME = "git";
+
+  private static final String GIT_DIR = ".git";
+  private static final String GIT_DIR_PREFIX = "gitdir:";
+  private static final String REF_PREFIX = "ref:";
+  private static final String PACKED_REFS = "packed-refs";
+  private static final String COMMON_DIR = "commondir";
+  private static final int MAX_SYMBOLIC_REFS = 5;
+  // SHA-1 or SHA-256.
+  private static final Pattern OBJECT_ID = Pattern.compile("[0-9a-f]{40}|[0-9a-f]{64}");
+
+  @Override
+  public String localRevision(File workingCopy) throws IOException {
+    Path gitDir = gitDir(workingCopy.toPath().resolve(GIT_DIR));
+    if (gitDir == null) {
+      return null;
+    }
+    // A linked worktree has its own HEAD, but shares everything under refs with the main repository.
+    String common = read(gitDir.resolve(COMMON_DIR));
+    Path commonDir = common != null ? gitDir.resolve(common).normalize() : gitDir;
+    String value = read(gitDir.resolve("HEAD"));
+    for (int i = 0; value != null && i < MAX_SYMBOLIC_REFS; i++) {
+      if (!value.startsWith(REF_PREFIX)) {
+        return OBJECT_ID.matcher(value).matches() ? value : null;
+      }
+      String ref = value.substring(REF_PREFIX.length()).trim();
+      value = ref.startsWith("refs/") ? resolve(commonDir, ref) : resolve(gitDir, ref);
+    }
+    return null;
+  }
+
+  private static Path gitDir(Path dotGit) throws IOException {
+    if (Files.isDirectory(dotGit)) {
+      return dotGit;
+    }
+    String pointer = read(dotGit);
+    if (pointer == null || !pointer.startsWith(GIT_DIR_PREFIX)) {
+      return null;
+    }
+    Path gitDir = dotGit.getParent().resolve(pointer.substring(GIT_DIR_PREFIX.length()).trim()).normalize();
+    return Files.isDirectory(gitDir) ? gitDir : null;
+  }
+
+  private static String resolve(Path dir, String ref) throws IOException {
+    String loose = read(dir.resolve(ref));
+    return loose != null ? loose : packed(dir, ref);
+  }
+
+  private static String packed(Path dir, String ref) throws IOException {
+    Path packedRefs = dir.resolve(PACKED_REFS);
+    try (BufferedReader reader = Files.newBufferedReader(packedRefs, StandardCharsets.UTF_8)) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        // Comments, and the peeled value of the tag on the line before.
+        if (line.startsWith("#") || line.startsWith("^")) {
+          continue;
+        }
+        int space = line.indexOf(' ');
+        if (space > 0 && line.substring(space + 1).trim().equals(ref)) {
+          return line.substring(0, space);
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // Not packed either.
+    }
+    return null;
+  }
+
+  private static String read(Path file) throws IOException {
+    try {
+      return Files.isRegularFile(file) ? new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim() : null;
+    } catch (NoSuchFileException e) {
+      // Removed since we looked; git replaces refs by renaming over them.
+      return null;
+    }
+  }
+}
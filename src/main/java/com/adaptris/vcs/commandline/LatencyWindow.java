@@ -0,0 +1,38 @@
+package com.adaptris.vcs.commandline;
+
+import java.util.Arrays;
+
+/**
+ * The most recent latencies of an action.
+ */
+final class LatencyWindow {
+
+  private static final int SIZE = 128;
+
+  private final long[] samples = new long[SIZE];
+  private int count;
+  private int next;
+
+  synchronized void record(long millis) {
+    samples[next] = millis;
+    next = (next + 1) % SIZE;
+    count = Math.min(count + 1, SIZE);
+  }
+
+  synchronized int size() {
+    return count;
+  }
+
+  /**
+   * @param percentile between 0 and 100.
+   */
+  synchronized long percentile(double percentile) {
+    if (count == 0) {
+      return -1;
+    }
+    long[] sorted = Arrays.copyOf(samples, count);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100 * count) - 1;
+    return sorted[Math.max(0, Math.min(count - 1, index))];
+  }
+}
@@ -0,0 +1,10 @@
+package com.adaptris.vcs.commandline;
+
+/**
+ * Consumes the output of a single action; once it is complete the running command is stopped and no further
+ * commands are executed.
+ */
+interface OutputConsumer extends CommandOutputListener {
+
+  boolean isComplete();
+}
@@ -0,0 +1,59 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.exec.ExecuteStreamHandler;
+import org.apache.commons.exec.PumpStreamHandler;
+import org.apache.commons.exec.StreamPumper;
+
+/**
+ * Does what {@link PumpStreamHandler} does with stdout and stderr, but on {@link CommandThreads}' pool instead of
+ * starting a thread for each.
+ */
+class PooledPumpStreamHandler implements ExecuteStreamHandler {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final OutputStream output;
+  private final List<StreamPumper> pumpers = new ArrayList<>(2);
+
+  PooledPumpStreamHandler(OutputStream output) {
+    this.output = output;
+  }
+
+  @Override
+  public void setProcessInputStream(OutputStream os) throws IOException {
+    os.close();
+  }
+
+  @Override
+  public void setProcessOutputStream(InputStream is) {
+    pumpers.add(new StreamPumper(is, output, false, BUFFER_SIZE));
+  }
+
+  @Override
+  public void setProcessErrorStream(InputStream is) {
+    pumpers.add(new StreamPumper(is, output, false, BUFFER_SIZE));
+  }
+
+  @Override
+  public void start() {
+    pumpers.forEach(CommandThreads::execute);
+  }
+
+  @Override
+  public void stop() throws IOException {
+    try {
+      for (StreamPumper pumper : pumpers) {
+        pumper.waitFor();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    output.flush();
+  }
+}
@@ -0,0 +1,149 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Kills a process along with everything it started.
+ * <p>
+ * Destroying just the process we started leaves its children (e.g. {@code git-remote-https}) holding the output pipe
+ * open, so anything reading the output carries on blocking. On Java 9+ descendants are found via
+ * {@code ProcessHandle}, otherwise {@code pkill -P} is used if we know the pid.
+ * </p>
+ */
+final class ProcessTree {
+
+  private static final Method DESCENDANTS = method(Process.class, "descendants");
+  private static final Method DESTROY_FORCIBLY = method(className("java.lang.ProcessHandle"), "destroyForcibly");
+  private static final Method PID = method(Process.class, "pid");
+
+  private ProcessTree() {
+
+  }
+
+  static void destroy(Process process) {
+    destroy(process, -1);
+  }
+
+  static void destroy(Process process, long pid) {
+    if (!destroyDescendants(process) && pid > 0) {
+      pkill(pid);
+    }
+    process.destroy();
+  }
+
+  /**
+   * Wrap a process so that {@link Process#destroy()} kills the whole tree; for handing to an
+   * {@link org.apache.commons.exec.ExecuteWatchdog}.
+   */
+  static Process killable(Process process, long pid) {
+    return new TreeProcess(process, pid);
+  }
+
+  static Process killable(Process process) {
+    return process instanceof TreeProcess ? process : new TreeProcess(process, pid(process));
+  }
+
+  /**
+   * The pid of the process, or {@code -1} if it can't be determined.
+   */
+  static long pid(Process process) {
+    try {
+      if (PID != null) {
+        return ((Number) PID.invoke(process)).longValue();
+      }
+      // Java 8 only has it in a private field of java.lang.UNIXProcess.
+      Field field = process.getClass().getDeclaredField("pid");
+      field.setAccessible(true);
+      return field.getLong(process);
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  private static boolean destroyDescendants(Process process) {
+    if (DESCENDANTS == null || DESTROY_FORCIBLY == null) {
+      return false;
+    }
+    try (Stream<?> descendants = (Stream<?>) DESCENDANTS.invoke(process)) {
+      for (Iterator<?> i = descendants.iterator(); i.hasNext();) {
+        DESTROY_FORCIBLY.invoke(i.next());
+      }
+      return true;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  private static void pkill(long pid) {
+    try {
+      new ProcessBuilder("pkill", "-KILL", "-P", String.valueOf(pid)).start().waitFor(5, TimeUnit.SECONDS);
+    } catch (IOException e) {
+      // No pkill, nothing more we can do.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static Class<?> className(String name) {
+    try {
+      return Class.forName(name);
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  private static Method method(Class<?> clazz, String name) {
+    try {
+      return clazz != null ? clazz.getMethod(name) : null;
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static class TreeProcess extends Process {
+    private final Process process;
+    private final long pid;
+
+    TreeProcess(Process process, long pid) {
+      this.process = process;
+      this.pid = pid;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return process.getOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return process.getInputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return process.getErrorStream();
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+      return process.waitFor();
+    }
+
+    @Override
+    public int exitValue() {
+      return process.exitValue();
+    }
+
+    @Override
+    public void destroy() {
+      ProcessTree.destroy(process, pid);
+    }
+  }
+}
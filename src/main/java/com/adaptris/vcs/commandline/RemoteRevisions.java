@@ -0,0 +1,56 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.adaptris.core.management.vcs.VcsException;
+
+/**
+ * The outcome of {@link CommandLineVCS#getRemoteRevisions(Map)}: a revision or an error for each working copy, in the
+ * order they were asked for.
+ */
+public final class RemoteRevisions {
+
+  private final Map<File, String> revisions = new LinkedHashMap<>();
+  private final Map<File, VcsException> errors = new LinkedHashMap<>();
+
+  RemoteRevisions(Map<File, String> workingCopies, Map<String, String> revisionsByRemote,
+                  Map<String, VcsException> errorsByRemote) {
+    for (Map.Entry<File, String> workingCopy : workingCopies.entrySet()) {
+      VcsException error = errorsByRemote.get(workingCopy.getValue());
+      if (error != null) {
+        errors.put(workingCopy.getKey(), error);
+      } else {
+        revisions.put(workingCopy.getKey(), revisionsByRemote.get(workingCopy.getValue()));
+      }
+    }
+  }
+
+  /**
+   * @return the revision, or null if the lookup failed.
+   */
+  public String getRevision(File workingCopy) {
+    return revisions.get(workingCopy);
+  }
+
+  /**
+   * @return why the lookup failed, or null if it didn't.
+   */
+  public VcsException getError(File workingCopy) {
+    return errors.get(workingCopy);
+  }
+
+  public Map<File, String> getRevisions() {
+    return Collections.unmodifiableMap(revisions);
+  }
+
+  public Map<File, VcsException> getErrors() {
+    return Collections.unmodifiableMap(errors);
+  }
+
+  public boolean hasErrors() {
+    return !errors.isEmpty();
+  }
+}
@@ -0,0 +1,99 @@
+package com.adaptris.vcs.commandline;
+
+import static com.adaptris.vcs.commandline.CommandSequence.HEDGE_AFTER;
+import static com.adaptris.vcs.commandline.CommandSequence.HEDGE_PERCENTILE;
+import static com.adaptris.vcs.commandline.CommandSequence.RETRY_ATTEMPTS;
+import static com.adaptris.vcs.commandline.CommandSequence.RETRY_BACKOFF;
+import static com.adaptris.vcs.commandline.CommandSequence.RETRY_BACKOFF_MAX;
+import static com.adaptris.vcs.commandline.CommandSequence.RETRY_EXIT_CODES;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How often, and how soon, to try an action again; taken from the action's {@code retry.*} and {@code hedge.*}
+ * settings.
+ * <p>
+ * Only a command exiting with a failure is retried (and only with one of {@code retry.exit.codes}, if set); the
+ * wait doubles each time up to {@code retry.backoff.max}, with up to half of it randomised.
+ * </p>
+ */
+final class RetryPolicy {
+
+  private static final long DEFAULT_BACKOFF = 1000;
+  private static final long DEFAULT_BACKOFF_MAX = 30000;
+  // Fewer samples than this are too few to take a percentile from.
+  private static final int MIN_SAMPLES = 20;
+
+  private final int attempts;
+  private final long backoff;
+  private final long maxBackoff;
+  private final Set<Integer> exitCodes;
+  private final long hedgeAfter;
+  private final double hedgePercentile;
+
+  private RetryPolicy(int attempts, long backoff, long maxBackoff, Set<Integer> exitCodes, long hedgeAfter,
+                      double hedgePercentile) {
+    this.attempts = attempts;
+    this.backoff = backoff;
+    this.maxBackoff = maxBackoff;
+    this.exitCodes = exitCodes;
+    this.hedgeAfter = hedgeAfter;
+    this.hedgePercentile = hedgePercentile;
+  }
+
+  static RetryPolicy of(CommandSequence commands) {
+    Set<Integer> exitCodes = new HashSet<>();
+    String codes = commands.getAttribute(RETRY_EXIT_CODES);
+    if (codes != null) {
+      for (String code : codes.split(",")) {
+        if (!code.trim().isEmpty()) {
+          exitCodes.add(Integer.valueOf(code.trim()));
+        }
+      }
+    }
+    String percentile = commands.getAttribute(HEDGE_PERCENTILE);
+    return new RetryPolicy((int) Math.max(1, commands.getAttribute(RETRY_ATTEMPTS, 1)),
+        Math.max(0, commands.getAttribute(RETRY_BACKOFF, DEFAULT_BACKOFF)),
+        Math.max(0, commands.getAttribute(RETRY_BACKOFF_MAX, DEFAULT_BACKOFF_MAX)), exitCodes,
+        commands.getAttribute(HEDGE_AFTER, -1), percentile != null ? Double.parseDouble(percentile) : -1);
+  }
+
+  int getAttempts() {
+    return attempts;
+  }
+
+  /**
+   * @param exitValue the exit value of the command that failed, null if it wasn't a command that failed.
+   */
+  boolean isRetryable(Integer exitValue) {
+    return exitValue != null && (exitCodes.isEmpty() || exitCodes.contains(exitValue));
+  }
+
+  /**
+   * How long to wait after the given (1 based) attempt failed.
+   */
+  long delay(int attempt) {
+    long delay = backoff;
+    for (int i = 1; i < attempt && delay < maxBackoff; i++) {
+      delay *= 2;
+    }
+    delay = Math.min(delay, maxBackoff);
+    return delay / 2 + (delay > 1 ? ThreadLocalRandom.current().nextLong(delay - delay / 2 + 1) : delay - delay / 2);
+  }
+
+  boolean isHedged() {
+    return hedgeAfter >= 0 || hedgePercentile > 0;
+  }
+
+  /**
+   * When to start a second attempt; -1 to not (yet) do so.
+   */
+  long hedgeAfter(LatencyWindow latencies) {
+    if (hedgePercentile > 0 && latencies.size() >= MIN_SAMPLES) {
+      return latencies.percentile(hedgePercentile);
+    }
+    return hedgeAfter;
+  }
+}
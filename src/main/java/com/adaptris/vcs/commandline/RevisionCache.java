@@ -0,0 +1,249 @@
+package com.adaptris.vcs.commandline;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+
+import com.adaptris.core.management.vcs.VcsException;
+
+/**
+ * Caches revisions so that repeated lookups don't each start a process.
+ * <p>
+ * Remote revisions are kept for a fixed time, and concurrent lookups of the same revision share a single command.
+ * Local revisions are kept until something changes in the working copy's metadata directory (e.g. {@code .git} and
+ * {@code .git/refs}), which is watched rather than polled.
+ * </p>
+ */
+class RevisionCache implements Closeable {
+
+  @FunctionalInterface
+  interface Lookup {
+    String get() throws VcsException;
+  }
+
+  private final long remoteTtl;
+  private final String metadataDirectory;
+  private final String name;
+  private final Logger log;
+
+  private final Map<String, RemoteEntry> remote = new ConcurrentHashMap<>();
+  private final Map<String, String> local = new ConcurrentHashMap<>();
+  private final Map<String, Long> generations = new ConcurrentHashMap<>();
+  private final Map<WatchKey, String> watchKeys = new ConcurrentHashMap<>();
+  private final Map<String, Boolean> watched = new ConcurrentHashMap<>();
+  private WatchService watchService;
+
+  /**
+   * @param remoteTtl how long to keep remote revisions, {@code <= 0} to not cache them.
+   * @param metadataDirectory the directory within the working copy to watch, {@code null} to not cache local
+   *          revisions.
+   */
+  RevisionCache(long remoteTtl, String metadataDirectory, String name, Logger log) {
+    this.remoteTtl = remoteTtl;
+    this.metadataDirectory = metadataDirectory;
+    this.name = name;
+    this.log = log;
+  }
+
+  String remote(String key, Lookup lookup) throws VcsException {
+    if (remoteTtl <= 0) {
+      return lookup.get();
+    }
+    CompletableFuture<String> lookingUp = new CompletableFuture<>();
+    RemoteEntry entry = remote.compute(key, (k, existing) -> existing != null && existing.isValid() ? existing : new RemoteEntry(lookingUp));
+    if (entry.future != lookingUp) {
+      return await(entry.future);
+    }
+    try {
+      String revision = lookup.get();
+      entry.expires = System.currentTimeMillis() + remoteTtl;
+      lookingUp.complete(revision);
+      return revision;
+    } catch (VcsException | RuntimeException e) {
+      remote.remove(key, entry);
+      lookingUp.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  String local(File workingCopy, Lookup lookup) throws VcsException {
+    if (metadataDirectory == null) {
+      return lookup.get();
+    }
+    String key = key(workingCopy);
+    String cached = local.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    if (!watch(key)) {
+      return lookup.get();
+    }
+    long generation = generations.getOrDefault(key, 0L);
+    String revision = lookup.get();
+    synchronized (generations) {
+      // Don't keep it if the working copy changed while we were looking.
+      if (generation == generations.getOrDefault(key, 0L) && revision != null) {
+        local.put(key, revision);
+      }
+    }
+    return revision;
+  }
+
+  void invalidate(File workingCopy) {
+    if (workingCopy != null) {
+      String key = key(workingCopy);
+      invalidate(key);
+      // The metadata directory may have been replaced, so watch it afresh next time.
+      watched.remove(key);
+    }
+    remote.clear();
+  }
+
+  private void invalidate(String key) {
+    synchronized (generations) {
+      generations.merge(key, 1L, Long::sum);
+      local.remove(key);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException ignored) {
+
+      }
+      watchService = null;
+    }
+    watchKeys.clear();
+    watched.clear();
+    local.clear();
+    remote.clear();
+  }
+
+  private synchronized boolean watch(String key) {
+    if (watched.containsKey(key)) {
+      return true;
+    }
+    Path metadata = new File(key, metadataDirectory).toPath();
+    if (!Files.isDirectory(metadata)) {
+      return false;
+    }
+    try {
+      if (watchService == null) {
+        watchService = FileSystems.getDefault().newWatchService();
+        startWatching(watchService);
+      }
+      register(metadata, key, false);
+      Path refs = metadata.resolve("refs");
+      if (Files.isDirectory(refs)) {
+        register(refs, key, true);
+      }
+      watched.put(key, Boolean.TRUE);
+      return true;
+    } catch (IOException e) {
+      log.warn("{}: Unable to watch [{}], local revisions won't be cached", name, metadata, e);
+      return false;
+    }
+  }
+
+  private void register(Path directory, String key, boolean recursive) throws IOException {
+    watchKeys.put(directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), key);
+    if (recursive) {
+      try (DirectoryStream<Path> children = Files.newDirectoryStream(directory, Files::isDirectory)) {
+        for (Path child : children) {
+          register(child, key, true);
+        }
+      }
+    }
+  }
+
+  private void startWatching(final WatchService service) {
+    Thread thread = new Thread(() -> {
+      try {
+        while (true) {
+          WatchKey watchKey = service.take();
+          String key = watchKeys.get(watchKey);
+          for (WatchEvent<?> event : watchKey.pollEvents()) {
+            if (key != null && event.kind() == ENTRY_CREATE) {
+              registerCreated(service, (Path) watchKey.watchable(), (Path) event.context(), key);
+            }
+          }
+          if (key != null) {
+            log.trace("{}: [{}] changed, discarding its local revision", name, key);
+            invalidate(key);
+          }
+          if (!watchKey.reset()) {
+            watchKeys.remove(watchKey);
+          }
+        }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        // closed.
+      }
+    }, name + "-revision-watch");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // New directories under refs (e.g. refs/heads/feature) need watching too.
+  private synchronized void registerCreated(WatchService service, Path parent, Path child, String key) {
+    Path created = parent.resolve(child);
+    if (service == watchService && Files.isDirectory(created) && created.toString().contains(File.separator + "refs")) {
+      try {
+        register(created, key, true);
+      } catch (IOException e) {
+        log.trace("{}: Unable to watch [{}]", name, created, e);
+      }
+    }
+  }
+
+  private static String key(File workingCopy) {
+    return workingCopy.getAbsoluteFile().toPath().normalize().toString();
+  }
+
+  private static String await(CompletableFuture<String> future) throws VcsException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof VcsException) {
+        throw (VcsException) e.getCause();
+      }
+      throw new VcsException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new VcsException(e);
+    }
+  }
+
+  private static class RemoteEntry {
+    private final CompletableFuture<String> future;
+    private volatile long expires = Long.MAX_VALUE;
+
+    RemoteEntry(CompletableFuture<String> future) {
+      this.future = future;
+    }
+
+    boolean isValid() {
+      return !future.isDone() || System.currentTimeMillis() < expires;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package com.adaptris.vcs.commandline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+
+import com.adaptris.core.management.vcs.RevisionHistoryItem;
+
+/**
+ * Builds {@link RevisionHistoryItem}s from {@code <revision> <comment>} lines as they are output.
+ */
+class RevisionHistoryParser implements OutputConsumer {
+
+  private final int limit;
+  private final Logger log;
+  private final String name;
+  private final List<RevisionHistoryItem> history = new ArrayList<>();
+
+  RevisionHistoryParser(int limit, String name, Logger log) {
+    this.limit = limit;
+    this.name = name;
+    this.log = log;
+  }
+
+  @Override
+  public void outputLine(String command, String line) {
+    if (isComplete()) {
+      return;
+    }
+    RevisionHistoryItem item = parse(line);
+    if (item == null) {
+      log.warn("{}: History item returned less than 2 items ignoring.", name);
+      return;
+    }
+    accept(item);
+  }
+
+  @Override
+  public boolean isComplete() {
+    return limit > 0 && count() >= limit;
+  }
+
+  List<RevisionHistoryItem> getHistory() {
+    return history;
+  }
+
+  void accept(RevisionHistoryItem item) {
+    history.add(item);
+  }
+
+  int count() {
+    return history.size();
+  }
+
+  static RevisionHistoryItem parse(String line) {
+    int length = line.length();
+    int revisionStart = skipWhitespace(line, 0);
+    int revisionEnd = revisionStart;
+    while (revisionEnd < length && !Character.isWhitespace(line.charAt(revisionEnd))) {
+      revisionEnd++;
+    }
+    int commentStart = skipWhitespace(line, revisionEnd);
+    if (revisionStart == revisionEnd || commentStart == length) {
+      return null;
+    }
+    return new RevisionHistoryItem(line.substring(revisionStart, revisionEnd), line.substring(commentStart));
+  }
+
+  private static int skipWhitespace(String line, int from) {
+    int i = from;
+    while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+}
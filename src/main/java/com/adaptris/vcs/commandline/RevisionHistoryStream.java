@@ -0,0 +1,101 @@
+package com.adaptris.vcs.commandline;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import com.adaptris.core.management.vcs.RevisionHistoryItem;
+import com.adaptris.core.management.vcs.VcsException;
+
+/**
+ * Hands history items from the process output over to whoever is iterating.
+ * <p>
+ * The queue is bounded so that a slow reader stops the output being pumped (and in turn the process) rather than
+ * buffering the whole history; closing the stream stops the process.
+ * </p>
+ */
+class RevisionHistoryStream extends RevisionHistoryParser implements Iterator<RevisionHistoryItem> {
+
+  private static final int CAPACITY = 256;
+  private static final RevisionHistoryItem END = new RevisionHistoryItem("", "");
+
+  private final BlockingQueue<RevisionHistoryItem> queue = new ArrayBlockingQueue<>(CAPACITY);
+  private volatile boolean closed;
+  private volatile VcsException failure;
+  private int count;
+  private RevisionHistoryItem next;
+
+  RevisionHistoryStream(int limit, String name, Logger log) {
+    super(limit, name, log);
+  }
+
+  @Override
+  public boolean isComplete() {
+    return closed || super.isComplete();
+  }
+
+  @Override
+  void accept(RevisionHistoryItem item) {
+    count++;
+    put(item);
+  }
+
+  @Override
+  int count() {
+    return count;
+  }
+
+  void finished(VcsException e) {
+    failure = e;
+    put(END);
+  }
+
+  void close() {
+    closed = true;
+    queue.clear();
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null) {
+      try {
+        next = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted waiting for revision history", e);
+      }
+    }
+    if (next == END) {
+      queue.offer(END);
+      if (failure != null) {
+        throw new IllegalStateException(failure.getMessage(), failure);
+      }
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public RevisionHistoryItem next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    RevisionHistoryItem result = next;
+    next = null;
+    return result;
+  }
+
+  private void put(RevisionHistoryItem item) {
+    try {
+      while (!closed && !queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+        // Keep trying until there's room or nobody is listening any more.
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Works out the local revision of a working copy without running a command.
+ * <p>
+ * Configured with {@code vcs.local.revision.resolver}, either {@code git} or the name of a class implementing this
+ * interface (with a no argument constructor). {@code vcs.command.line.local.revision} is still run whenever the
+ * resolver can't answer.
+ * </p>
+ */
+@FunctionalInterface
+public interface RevisionResolver {
+
+  /**
+   * @return the revision, or null if it can't be resolved without running a command.
+   */
+  String localRevision(File workingCopy) throws IOException;
+}
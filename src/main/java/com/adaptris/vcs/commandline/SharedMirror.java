@@ -0,0 +1,107 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.io.FileUtils;
+
+import com.adaptris.core.management.vcs.VcsException;
+
+/**
+ * A copy of a remote repository shared by every working copy on the host, so that the remote is only fetched from
+ * once.
+ * <p>
+ * Refreshes are serialised, between JVMs as well as threads, by a lock on {@code <mirror>.lock}; a refresh that
+ * someone else finished within the refresh interval is good enough.
+ * </p>
+ */
+final class SharedMirror {
+
+  @FunctionalInterface
+  interface Refresh {
+    void run() throws VcsException;
+  }
+
+  // A FileLock is held on behalf of the whole JVM, so threads need to queue up separately.
+  private static final Map<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+  private final File directory;
+  private final File lockFile;
+  private final File stampFile;
+
+  private SharedMirror(File directory) {
+    this.directory = directory;
+    lockFile = new File(directory.getParentFile(), directory.getName() + ".lock");
+    stampFile = new File(directory.getParentFile(), directory.getName() + ".refreshed");
+  }
+
+  static SharedMirror forRemote(File mirrorsDirectory, String remoteRepoUrl) {
+    return new SharedMirror(
+        new File(mirrorsDirectory, CommandLineVCSUtils.safeName(withoutCredentials(remoteRepoUrl), remoteRepoUrl)).getAbsoluteFile());
+  }
+
+  // The mirrors directory is shared, so keep user names, passwords and tokens out of the names in it.
+  static String withoutCredentials(String remoteRepoUrl) {
+    return remoteRepoUrl.replaceFirst("^([A-Za-z][A-Za-z0-9+.-]*://)[^/@]*@", "$1").replaceFirst("[?#].*$", "");
+  }
+
+  File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * @param interval don't refresh if the last refresh finished less than this many ms ago.
+   * @param create run if the mirror doesn't exist yet.
+   * @param update run if the mirror exists but is due a refresh.
+   * @return true if this call refreshed the mirror.
+   */
+  boolean refresh(long interval, Refresh create, Refresh update) throws VcsException {
+    ReentrantLock lock = LOCKS.computeIfAbsent(lockFile.getPath(), k -> new ReentrantLock());
+    lock.lock();
+    try {
+      directory.getParentFile().mkdirs();
+      // Closing the channel releases the lock.
+      try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+        channel.lock();
+        boolean exists = directory.isDirectory();
+        if (exists && isFresh(interval)) {
+          return false;
+        }
+        if (exists) {
+          update.run();
+        } else {
+          create(create);
+        }
+        Files.write(stampFile.toPath(), new byte[0]);
+        Files.setLastModifiedTime(stampFile.toPath(), FileTime.fromMillis(System.currentTimeMillis()));
+        return true;
+      }
+    } catch (IOException e) {
+      throw new VcsException(String.format("Failed to lock mirror [%s]", directory), e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Don't leave half a mirror behind for the next refresh to try and update.
+  private void create(Refresh create) throws VcsException {
+    try {
+      create.run();
+    } catch (VcsException | RuntimeException e) {
+      FileUtils.deleteQuietly(directory);
+      throw e;
+    }
+  }
+
+  private boolean isFresh(long interval) throws IOException {
+    return stampFile.exists()
+        && System.currentTimeMillis() - Files.getLastModifiedTime(stampFile.toPath()).toMillis() < interval;
+  }
+}
@@ -0,0 +1,131 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * A long lived POSIX shell that commands are fed to one at a time.
+ * <p>
+ * The end of each command is detected by a sentinel line, printed by the shell along with the exit status of the
+ * command, that is unique to the session.
+ * </p>
+ */
+class ShellSession implements Closeable {
+
+  private final Process process;
+  private final OutputStream stdin;
+  private final InputStream stdout;
+  private final String marker;
+  private final byte[] sentinel;
+  private final long pid;
+
+  ShellSession(String shell) throws IOException {
+    process = new ProcessBuilder(shell).redirectErrorStream(true).start();
+    stdin = process.getOutputStream();
+    stdout = new BufferedInputStream(process.getInputStream());
+    marker = "__VCS_SESSION_" + UUID.randomUUID().toString().replace("-", "");
+    // The leading newline means the sentinel is always on its own line, even if the command output wasn't.
+    sentinel = ("\n" + marker + " ").getBytes(StandardCharsets.US_ASCII);
+    try {
+      pid = execute("printf '\\n%s %d\\n' " + marker + " $$\n", NullOutputStream.NULL_OUTPUT_STREAM);
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  int execute(String[] command, Map<String, String> environment, File workingDirectory, OutputStream out)
+      throws IOException {
+    StringBuilder line = new StringBuilder("cd ").append(quote(workingDirectory.getAbsolutePath())).append(" && ");
+    if (environment != null) {
+      line.append("env");
+      for (Map.Entry<String, String> entry : environment.entrySet()) {
+        line.append(' ').append(quote(entry.getKey() + "=" + entry.getValue()));
+      }
+      line.append(' ');
+    }
+    for (String arg : command) {
+      line.append(quote(arg)).append(' ');
+    }
+    line.append("</dev/null; printf '\\n%s %d\\n' ").append(marker).append(" $?\n");
+    return execute(line.toString(), out);
+  }
+
+  private int execute(String line, OutputStream out) throws IOException {
+    stdin.write(line.getBytes(Charset.defaultCharset()));
+    stdin.flush();
+    return readOutput(out);
+  }
+
+  /**
+   * The shell process, wrapped so that destroying it also kills whatever command it is running.
+   */
+  Process getProcess() {
+    return ProcessTree.killable(process, pid);
+  }
+
+  boolean isAlive() {
+    return process.isAlive();
+  }
+
+  @Override
+  public void close() {
+    try {
+      stdin.close();
+    } catch (IOException ignored) {
+
+    }
+    ProcessTree.destroy(process, pid);
+  }
+
+  private int readOutput(OutputStream out) throws IOException {
+    // The sentinel starts with the only newline it contains, so on a mismatch we only need to
+    // re-examine the current byte rather than backtrack.
+    int matched = 0;
+    int b;
+    while ((b = stdout.read()) != -1) {
+      if (b == sentinel[matched]) {
+        if (++matched == sentinel.length) {
+          return readExitValue();
+        }
+        continue;
+      }
+      if (matched > 0) {
+        out.write(sentinel, 0, matched);
+        matched = 0;
+        if (b == sentinel[0]) {
+          matched = 1;
+          continue;
+        }
+      }
+      out.write(b);
+    }
+    throw new IOException("Shell session terminated before the command completed");
+  }
+
+  private int readExitValue() throws IOException {
+    int exitValue = 0;
+    int b;
+    while ((b = stdout.read()) != -1 && b != '\n') {
+      exitValue = exitValue * 10 + (b - '0');
+    }
+    if (b == -1) {
+      throw new IOException("Shell session terminated before the exit value was available");
+    }
+    return exitValue;
+  }
+
+  private static String quote(String arg) {
+    return "'" + arg.replace("'", "'\\''") + "'";
+  }
+}
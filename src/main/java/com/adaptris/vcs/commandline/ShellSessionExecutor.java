@@ -0,0 +1,162 @@
+package com.adaptris.vcs.commandline;
+
+import static com.adaptris.vcs.commandline.CommandLineVCSUtils.fullpath;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.ExecuteException;
+import org.apache.commons.exec.ExecuteResultHandler;
+import org.apache.commons.exec.ExecuteStreamHandler;
+import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.exec.Executor;
+import org.apache.commons.exec.ProcessDestroyer;
+
+/**
+ * {@link Executor} that runs each command in a pooled {@link ShellSession} rather than forking a new process.
+ * <p>
+ * Output (stdout and stderr) is written to the supplied stream; any configured stream handler is ignored. If the
+ * watchdog fires then the whole session is killed and discarded.
+ * </p>
+ */
+class ShellSessionExecutor implements Executor {
+
+  private final ShellSessionPool pool;
+  private final OutputStream output;
+  private ExecuteStreamHandler streamHandler;
+  private ExecuteWatchdog watchdog;
+  private ProcessDestroyer processDestroyer;
+  private File workingDirectory = new File(".");
+  private int[] exitValues = new int[0];
+
+  ShellSessionExecutor(ShellSessionPool pool, OutputStream output) {
+    this.pool = pool;
+    this.output = output;
+  }
+
+  @Override
+  public int execute(CommandLine command) throws ExecuteException, IOException {
+    return execute(command, (Map<String, String>) null);
+  }
+
+  @Override
+  public int execute(CommandLine command, Map<String, String> environment) throws ExecuteException, IOException {
+    String key = fullpath(workingDirectory);
+    ShellSession session = pool.borrow(key);
+    boolean reusable = false;
+    if (watchdog != null) {
+      watchdog.start(session.getProcess());
+    }
+    try {
+      int exitValue = session.execute(command.toStrings(), environment, workingDirectory, output);
+      output.flush();
+      reusable = true;
+      if (isFailure(exitValue)) {
+        throw new ExecuteException("Process exited with an error: " + exitValue + " (Exit value: " + exitValue + ")",
+            exitValue);
+      }
+      return exitValue;
+    } catch (ExecuteException e) {
+      throw e;
+    } catch (IOException e) {
+      if (watchdog != null && watchdog.killedProcess()) {
+        throw new ExecuteException("Process killed by the watchdog", INVALID_EXITVALUE, e);
+      }
+      throw e;
+    } finally {
+      if (watchdog != null) {
+        watchdog.stop();
+      }
+      if (reusable) {
+        pool.release(key, session);
+      } else {
+        session.close();
+      }
+    }
+  }
+
+  @Override
+  public void execute(CommandLine command, ExecuteResultHandler handler) throws ExecuteException, IOException {
+    execute(command, null, handler);
+  }
+
+  // Sessions are inherently sequential so the "asynchronous" variants complete before they return.
+  @Override
+  public void execute(CommandLine command, Map<String, String> environment, ExecuteResultHandler handler)
+      throws ExecuteException, IOException {
+    try {
+      handler.onProcessComplete(execute(command, environment));
+    } catch (ExecuteException e) {
+      handler.onProcessFailed(e);
+    }
+  }
+
+  @Override
+  public void setExitValue(int value) {
+    setExitValues(new int[] {value});
+  }
+
+  @Override
+  public void setExitValues(int[] values) {
+    exitValues = values == null ? null : values.clone();
+  }
+
+  @Override
+  public boolean isFailure(int exitValue) {
+    if (exitValues == null) {
+      return false;
+    }
+    if (exitValues.length == 0) {
+      return exitValue != 0;
+    }
+    for (int value : exitValues) {
+      if (value == exitValue) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public ExecuteStreamHandler getStreamHandler() {
+    return streamHandler;
+  }
+
+  @Override
+  public void setStreamHandler(ExecuteStreamHandler streamHandler) {
+    this.streamHandler = streamHandler;
+  }
+
+  @Override
+  public ExecuteWatchdog getWatchdog() {
+    return watchdog;
+  }
+
+  @Override
+  public void setWatchdog(ExecuteWatchdog watchdog) {
+    this.watchdog = watchdog;
+  }
+
+  @Override
+  public ProcessDestroyer getProcessDestroyer() {
+    return processDestroyer;
+  }
+
+  @Override
+  public void setProcessDestroyer(ProcessDestroyer processDestroyer) {
+    this.processDestroyer = processDestroyer;
+  }
+
+  @Override
+  public File getWorkingDirectory() {
+    return workingDirectory;
+  }
+
+  @Override
+  public void setWorkingDirectory(File dir) {
+    workingDirectory = dir;
+  }
+}
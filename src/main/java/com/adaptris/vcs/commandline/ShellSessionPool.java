@@ -0,0 +1,68 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class ShellSessionPool implements Closeable {
+
+  private final String shell;
+  private final int maxIdle;
+  private final Map<String, Deque<ShellSession>> idle = new HashMap<>();
+  private boolean closed;
+
+  ShellSessionPool(String shell, int maxIdle) {
+    this.shell = shell;
+    this.maxIdle = maxIdle;
+  }
+
+  ShellSession borrow(String workingCopy) throws IOException {
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("Shell session pool is closed");
+      }
+      Deque<ShellSession> sessions = idle.get(workingCopy);
+      while (sessions != null && !sessions.isEmpty()) {
+        ShellSession session = sessions.pollFirst();
+        if (session.isAlive()) {
+          return session;
+        }
+        session.close();
+      }
+    }
+    return new ShellSession(shell);
+  }
+
+  void release(String workingCopy, ShellSession session) {
+    synchronized (this) {
+      if (!closed && session.isAlive()) {
+        Deque<ShellSession> sessions = idle.computeIfAbsent(workingCopy, k -> new ArrayDeque<>());
+        if (sessions.size() < maxIdle) {
+          sessions.addFirst(session);
+          return;
+        }
+      }
+    }
+    session.close();
+  }
+
+  @Override
+  public void close() {
+    List<ShellSession> sessions = new ArrayList<>();
+    synchronized (this) {
+      closed = true;
+      for (Deque<ShellSession> deque : idle.values()) {
+        sessions.addAll(deque);
+      }
+      idle.clear();
+    }
+    for (ShellSession session : sessions) {
+      session.close();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import com.adaptris.core.management.vcs.VcsException;
+
+/**
+ * Runs a poll every interval, plus a random amount of jitter so that many adapters don't all hit the remote at once.
+ * <p>
+ * Each consecutive failure doubles the interval, up to a maximum; a successful poll goes back to the normal interval.
+ * </p>
+ */
+class UpdatePoller implements Closeable {
+
+  @FunctionalInterface
+  interface Poll {
+    void run() throws VcsException;
+  }
+
+  private final Poll poll;
+  private final long interval;
+  private final long jitter;
+  private final long maxBackoff;
+  private final String name;
+  private final Logger log;
+  private final ScheduledExecutorService scheduler;
+  private int failures;
+
+  UpdatePoller(Poll poll, long interval, long jitter, long maxBackoff, String name, Logger log) {
+    this.poll = poll;
+    this.interval = interval;
+    this.jitter = jitter;
+    this.maxBackoff = Math.max(interval, maxBackoff);
+    this.name = name;
+    this.log = log;
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, name + "-poller");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  void start() {
+    schedule(interval);
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * The delay (without jitter) after the given number of consecutive failures.
+   */
+  long delay(int consecutiveFailures) {
+    long delay = interval;
+    for (int i = 0; i < consecutiveFailures && delay < maxBackoff; i++) {
+      delay *= 2;
+    }
+    return Math.min(delay, maxBackoff);
+  }
+
+  private void run() {
+    try {
+      poll.run();
+      failures = 0;
+    } catch (VcsException | RuntimeException e) {
+      failures++;
+      log.warn("{}: Poll failed ({} in a row), trying again in {} ms", name, failures, delay(failures), e);
+    }
+    schedule(delay(failures));
+  }
+
+  private void schedule(long delay) {
+    long next = delay + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0);
+    try {
+      scheduler.schedule(this::run, next, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // closed.
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.adaptris.core.management.vcs.VcsException;
+
+/**
+ * Stops threads and other JVMs from running commands against the same working copy at the same time.
+ * <p>
+ * Threads are coordinated by a (JVM wide) read/write lock per working copy, keyed on its canonical path and dropped
+ * once nobody holds or wants it. Other JVMs are coordinated by a {@link FileLock} on a file in the lock directory,
+ * held for as long as any thread in this JVM holds the working copy. Waits are bounded, failing with a
+ * {@link VcsException} rather than hanging.
+ * </p>
+ */
+class WorkingCopyLocks {
+
+  /**
+   * A held lock.
+   */
+  interface Lease extends Closeable {
+    @Override
+    void close();
+  }
+
+  static final Lease NONE = () -> {
+  };
+
+  private static final long RETRY_INTERVAL_MS = 50;
+  private static final Map<String, PathLock> LOCKS = new ConcurrentHashMap<>();
+
+  private final File lockDirectory;
+  private final long timeoutMs;
+
+  WorkingCopyLocks(File lockDirectory, long timeoutMs) {
+    this.lockDirectory = lockDirectory;
+    this.timeoutMs = timeoutMs;
+  }
+
+  /**
+   * @param shared true for read only operations, which may run alongside each other.
+   */
+  Lease lock(File workingCopy, boolean shared) throws VcsException {
+    String path = CommandLineVCSUtils.fullpath(workingCopy);
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    PathLock pathLock = LOCKS.compute(path, (k, existing) -> {
+      PathLock result = existing != null ? existing : new PathLock();
+      result.references++;
+      return result;
+    });
+    Lock threadLock = shared ? pathLock.threadLock.readLock() : pathLock.threadLock.writeLock();
+    try {
+      if (!threadLock.tryLock(timeoutMs, TimeUnit.MILLISECONDS)) {
+        release(path);
+        throw timedOut(path);
+      }
+    } catch (InterruptedException e) {
+      release(path);
+      Thread.currentThread().interrupt();
+      throw new VcsException(String.format("Interrupted waiting for a lock on [%s]", path), e);
+    }
+    try {
+      if (!pathLock.acquire(new File(lockDirectory, CommandLineVCSUtils.safeName(path) + ".lock"), shared, deadline, path)) {
+        throw timedOut(path);
+      }
+    } catch (VcsException | RuntimeException e) {
+      threadLock.unlock();
+      release(path);
+      throw e;
+    }
+    return () -> {
+      threadLock.unlock();
+      release(path);
+    };
+  }
+
+  // The last one out closes the lock file (releasing the FileLock) and forgets the path.
+  private static void release(String path) {
+    LOCKS.computeIfPresent(path, (k, pathLock) -> {
+      if (--pathLock.references > 0) {
+        return pathLock;
+      }
+      pathLock.close();
+      return null;
+    });
+  }
+
+  private VcsException timedOut(String path) {
+    return new VcsException(String.format("Timed out after %d ms waiting for a lock on [%s]", timeoutMs, path));
+  }
+
+  private static class PathLock {
+    private final ReentrantReadWriteLock threadLock = new ReentrantReadWriteLock();
+    // Holders and waiters; only changed inside LOCKS.compute.
+    private int references;
+    private FileChannel channel;
+    private FileLock fileLock;
+
+    /**
+     * Threads only get here once they hold the thread lock, so whoever is first decides what the FileLock is: the
+     * others are either readers joining a reader, or the writer itself.
+     *
+     * @return false if the deadline passed first.
+     */
+    synchronized boolean acquire(File lockFile, boolean shared, long deadline, String path) throws VcsException {
+      if (fileLock != null) {
+        return true;
+      }
+      try {
+        lockFile.getParentFile().mkdirs();
+        channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        while ((fileLock = channel.tryLock(0, Long.MAX_VALUE, shared)) == null) {
+          if (System.currentTimeMillis() >= deadline) {
+            return false;
+          }
+          TimeUnit.MILLISECONDS.sleep(RETRY_INTERVAL_MS);
+        }
+        return true;
+      } catch (IOException e) {
+        throw new VcsException(String.format("Failed to lock [%s]", lockFile), e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new VcsException(String.format("Interrupted waiting for a lock on [%s]", path), e);
+      } finally {
+        if (fileLock == null) {
+          close();
+        }
+      }
+    }
+
+    synchronized void close() {
+      try {
+        if (channel != null) {
+          // Releases the lock too.
+          channel.close();
+        }
+      } catch (IOException ignored) {
+
+      }
+      channel = null;
+      fileLock = null;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package com.adaptris.vcs.commandline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A zip of a working copy (metadata included), with its revision as the archive comment.
+ * <p>
+ * File contents are copied with {@link FileChannel#transferTo} / {@link FileChannel#transferFrom}. Executable files
+ * and symbolic links are marked with an entry comment, since zip doesn't keep either; a link's entry holds its target,
+ * so that a restored git working copy matches its index.
+ * </p>
+ */
+final class WorkingCopySnapshot {
+
+  private static final String EXECUTABLE = "x";
+  private static final String SYMBOLIC_LINK = "l";
+
+  private WorkingCopySnapshot() {
+  }
+
+  /**
+   * @return the revision the snapshot was taken at, or null if there's no snapshot or it doesn't record one.
+   */
+  static String revision(File snapshot) {
+    if (!snapshot.isFile()) {
+      return null;
+    }
+    try (ZipFile zip = new ZipFile(snapshot)) {
+      return zip.getComment();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Write the snapshot to a temporary file first, so that a reader never sees half of one.
+   */
+  static void write(File workingCopy, File snapshot, String revision) throws IOException {
+    Path source = workingCopy.toPath();
+    File directory = snapshot.getAbsoluteFile().getParentFile();
+    directory.mkdirs();
+    Path temporary = Files.createTempFile(directory.toPath(), snapshot.getName(), ".tmp");
+    try {
+      try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(temporary));
+          Stream<Path> paths = Files.walk(source)) {
+        // Git's objects are compressed already; there's little to gain from trying harder.
+        zip.setLevel(Deflater.BEST_SPEED);
+        if (revision != null) {
+          zip.setComment(revision);
+        }
+        WritableByteChannel out = Channels.newChannel(zip);
+        List<Path> sorted = paths.filter(p -> !p.equals(source)).sorted().collect(Collectors.toList());
+        for (Path path : sorted) {
+          String name = source.relativize(path).toString().replace(File.separatorChar, '/');
+          if (Files.isSymbolicLink(path)) {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setComment(SYMBOLIC_LINK);
+            zip.putNextEntry(entry);
+            zip.write(Files.readSymbolicLink(path).toString().getBytes(StandardCharsets.UTF_8));
+          } else if (Files.isDirectory(path)) {
+            zip.putNextEntry(new ZipEntry(name + "/"));
+          } else {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setTime(Files.getLastModifiedTime(path).toMillis());
+            if (Files.isExecutable(path)) {
+              entry.setComment(EXECUTABLE);
+            }
+            zip.putNextEntry(entry);
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+              long size = in.size();
+              for (long position = 0; position < size;) {
+                position += in.transferTo(position, size - position, out);
+              }
+            }
+          }
+          zip.closeEntry();
+        }
+      }
+      Files.move(temporary, snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * @return the revision the snapshot was taken at, null if unknown.
+   */
+  static String restore(File snapshot, File workingCopy) throws IOException {
+    Path target = workingCopy.getAbsoluteFile().toPath().normalize();
+    try (ZipFile zip = new ZipFile(snapshot)) {
+      Files.createDirectories(target);
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        Path path = target.resolve(entry.getName()).normalize();
+        if (!path.startsWith(target)) {
+          throw new IOException(String.format("[%s] is outside of [%s]", entry.getName(), target));
+        }
+        if (entry.isDirectory()) {
+          Files.createDirectories(path);
+          continue;
+        }
+        Files.createDirectories(path.getParent());
+        // Don't follow a link restored earlier out of the working copy.
+        if (!path.getParent().toRealPath().startsWith(target.toRealPath())) {
+          throw new IOException(String.format("[%s] is outside of [%s]", entry.getName(), target));
+        }
+        if (SYMBOLIC_LINK.equals(entry.getComment())) {
+          try (InputStream in = zip.getInputStream(entry)) {
+            Files.deleteIfExists(path);
+            Files.createSymbolicLink(path, Paths.get(readTarget(in)));
+          }
+          continue;
+        }
+        try (InputStream in = zip.getInputStream(entry);
+            FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+          copy(Channels.newChannel(in), out, entry.getSize());
+        }
+        if (entry.getTime() != -1) {
+          path.toFile().setLastModified(entry.getTime());
+        }
+        if (EXECUTABLE.equals(entry.getComment())) {
+          path.toFile().setExecutable(true);
+        }
+      }
+      return zip.getComment();
+    }
+  }
+
+  private static String readTarget(InputStream in) throws IOException {
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+      target.write(buffer, 0, n);
+    }
+    return new String(target.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static void copy(ReadableByteChannel in, FileChannel out, long size) throws IOException {
+    long position = 0;
+    long transferred;
+    // The size isn't always known up front, so keep going until the entry is exhausted.
+    long chunk = size > 0 ? size : 1024 * 1024;
+    while ((transferred = out.transferFrom(in, position, chunk)) > 0) {
+      position += transferred;
+    }
+  }
+}
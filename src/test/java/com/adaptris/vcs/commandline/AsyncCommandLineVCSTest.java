@@ -0,0 +1,64 @@
+package com.adaptris.vcs.commandline;
+
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_ASYNC_THREADS;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_LOCAL_REVISION;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_REMOTE_REVISION;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_UPDATE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.adaptris.core.management.vcs.VcsException;
+
+public class AsyncCommandLineVCSTest extends CommandLineVCSCase {
+
+  @Before
+  public void setUp() throws Exception {
+    temporaryDir = new File(System.getProperty(TEMP_DIR_PROP));
+    properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_REMOTE_REVISION, "echo -n \"remote\"");
+    properties.put(VCS_COMMAND_LINE_LOCAL_REVISION, "false");
+    properties.put(VCS_COMMAND_LINE_UPDATE, "sleep 10");
+  }
+
+  @Test
+  public void getRemoteRevision() throws Exception {
+    try (AsyncCommandLineVCS vcs = new AsyncCommandLineVCS(new CommandLineVCS(properties))) {
+      assertEquals("remote", vcs.getRemoteRevision(REMOTE_REPO, temporaryDir).get(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void getLocalRevisionFailure() throws Exception {
+    try (AsyncCommandLineVCS vcs = new AsyncCommandLineVCS(new CommandLineVCS(properties))) {
+      vcs.getLocalRevision(temporaryDir).get(5, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof VcsException);
+    }
+  }
+
+  @Test
+  public void cancel() throws Exception {
+    properties.put(VCS_COMMAND_LINE_ASYNC_THREADS, "1");
+    try (AsyncCommandLineVCS vcs = new AsyncCommandLineVCS(new CommandLineVCS(properties))) {
+      long start = System.currentTimeMillis();
+      CompletableFuture<String> update = vcs.update(temporaryDir);
+      Thread.sleep(300);
+      assertTrue(update.cancel(true));
+      assertTrue(update.isCancelled());
+      // The thread is free again once the command has been killed.
+      assertEquals("remote", vcs.getRemoteRevision(REMOTE_REPO, temporaryDir).get(5, TimeUnit.SECONDS));
+      assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+  }
+}
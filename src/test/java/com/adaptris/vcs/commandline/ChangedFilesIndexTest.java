@@ -0,0 +1,74 @@
+package com.adaptris.vcs.commandline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangedFilesIndexTest {
+
+  private File parent;
+  private File workingCopy;
+  private File index;
+
+  @Before
+  public void setUp() throws Exception {
+    parent = Files.createTempDirectory("changes").toFile();
+    workingCopy = new File(parent, "working-copy");
+    index = new File(parent, "working-copy.changes");
+    write("adapter.xml", "adapter");
+    write("config/a.xml", "a");
+    write("config/b.xml", "b");
+    write(".git/HEAD", "abc123");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteQuietly(parent);
+  }
+
+  @Test
+  public void firstIndexHasNothingToCompareWith() throws Exception {
+    assertNull(ChangedFilesIndex.update(workingCopy, index, ".git"));
+    assertTrue(index.isFile());
+    assertEquals(Collections.emptySet(), ChangedFilesIndex.update(workingCopy, index, ".git"));
+  }
+
+  @Test
+  public void changes() throws Exception {
+    ChangedFilesIndex.update(workingCopy, index, ".git");
+    write("config/a.xml", "changed");
+    write("config/c.xml", "added");
+    new File(workingCopy, "config/b.xml").delete();
+    write(".git/HEAD", "def456");
+    assertEquals(new TreeSet<>(Arrays.asList("config/a.xml", "config/b.xml", "config/c.xml")),
+        ChangedFilesIndex.update(workingCopy, index, ".git"));
+    assertEquals(Collections.emptySet(), ChangedFilesIndex.update(workingCopy, index, ".git"));
+  }
+
+  @Test
+  public void touchedButUnchanged() throws Exception {
+    ChangedFilesIndex.update(workingCopy, index, ".git");
+    File adapter = new File(workingCopy, "adapter.xml");
+    adapter.setLastModified(adapter.lastModified() - 60000);
+    assertEquals(Collections.emptySet(), ChangedFilesIndex.update(workingCopy, index, ".git"));
+  }
+
+  private void write(String name, String content) throws IOException {
+    File file = new File(workingCopy, name);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,146 @@
+package com.adaptris.vcs.commandline;
+
+import static com.adaptris.core.management.vcs.VcsConstants.VCS_LOCAL_URL_KEY;
+import static com.adaptris.core.management.vcs.VcsConstants.VCS_REVISION_KEY;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CHECKOUT_DEPTH;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CHECKOUT_FILTER;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CHECKOUT_PROFILE;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CHECKOUT_SINGLE_BRANCH;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_CHECKOUT_SPARSE_PATHS;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_CHECKOUT;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_STAGING;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_UPDATE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Properties;
+
+import org.apache.commons.exec.CommandLine;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.adaptris.core.management.vcs.VcsException;
+
+public class CheckoutProfileTest {
+
+  private Properties properties;
+
+  @Before
+  public void setUp() {
+    properties = new Properties();
+    properties.put(VCS_LOCAL_URL_KEY, "file://localhost/./config");
+    properties.put(VCS_CHECKOUT_PROFILE, "git");
+  }
+
+  @Test
+  public void noProfile() throws Exception {
+    properties.remove(VCS_CHECKOUT_PROFILE);
+    assertSame(properties, CheckoutProfile.apply(properties));
+  }
+
+  @Test
+  public void unknownProfile() throws Exception {
+    properties.put(VCS_CHECKOUT_PROFILE, "svn");
+    try {
+      CheckoutProfile.apply(properties);
+      fail();
+    } catch (VcsException expected) {
+
+    }
+  }
+
+  @Test
+  public void fullClone() throws Exception {
+    Properties result = CheckoutProfile.apply(properties);
+    assertEquals("git clone ${vcs.remote.repo.url} ${vcs.workingcopy.url}", result.getProperty(VCS_COMMAND_LINE_CHECKOUT + ".0"));
+    assertNull(result.getProperty(VCS_COMMAND_LINE_CHECKOUT + ".1"));
+    assertEquals("git fetch origin", result.getProperty(VCS_COMMAND_LINE_UPDATE + ".0"));
+    assertEquals("git reset --hard @{upstream}", result.getProperty(VCS_COMMAND_LINE_UPDATE + ".1"));
+    assertEquals("git clone --local ${vcs.workingcopy.url} ${vcs.staging.url}", result.getProperty(VCS_COMMAND_LINE_STAGING + ".0"));
+    assertEquals("git -C ${vcs.staging.url} remote set-url origin ${vcs.remote.repo.url}",
+        result.getProperty(VCS_COMMAND_LINE_STAGING + ".1"));
+    assertNull(result.getProperty(VCS_COMMAND_LINE_STAGING + ".2"));
+  }
+
+  @Test
+  public void shallowSparseClone() throws Exception {
+    properties.put(VCS_REVISION_KEY, "master");
+    properties.put(VCS_CHECKOUT_DEPTH, "1");
+    properties.put(VCS_CHECKOUT_SINGLE_BRANCH, "true");
+    properties.put(VCS_CHECKOUT_FILTER, "blob:none");
+    properties.put(VCS_CHECKOUT_SPARSE_PATHS, "/config/, !README.md");
+    Properties result = CheckoutProfile.apply(properties);
+    assertEquals("git clone --no-checkout --depth 1 --single-branch --filter=blob:none --branch ${vcs.revision} "
+        + "${vcs.remote.repo.url} ${vcs.workingcopy.url}", result.getProperty(VCS_COMMAND_LINE_CHECKOUT + ".0"));
+    assertEquals("git sparse-checkout set --no-cone /config/ !README.md", result.getProperty(VCS_COMMAND_LINE_CHECKOUT + ".1"));
+    assertEquals("git read-tree -mu HEAD", result.getProperty(VCS_COMMAND_LINE_CHECKOUT + ".2"));
+    assertEquals("git fetch --depth 1 origin ${vcs.revision}", result.getProperty(VCS_COMMAND_LINE_UPDATE + ".0"));
+    assertEquals("git reset --hard FETCH_HEAD", result.getProperty(VCS_COMMAND_LINE_UPDATE + ".1"));
+    assertEquals("git clone --local --no-checkout ${vcs.workingcopy.url} ${vcs.staging.url}",
+        result.getProperty(VCS_COMMAND_LINE_STAGING + ".0"));
+    assertEquals("git -C ${vcs.staging.url} sparse-checkout set --no-cone /config/ !README.md",
+        result.getProperty(VCS_COMMAND_LINE_STAGING + ".2"));
+    assertEquals("git -C ${vcs.staging.url} read-tree -mu HEAD", result.getProperty(VCS_COMMAND_LINE_STAGING + ".3"));
+  }
+
+  @Test
+  public void sparsePathsWithSpacesAndQuotes() throws Exception {
+    properties.put(VCS_CHECKOUT_SPARSE_PATHS, "/config dir/, it's.xml, \"quoted\".xml");
+    Properties result = CheckoutProfile.apply(properties);
+    CommandLine commandLine = CommandTemplate.compile(result.getProperty(VCS_COMMAND_LINE_CHECKOUT + ".1"))
+        .toCommandLine(new HashMap<String, String>());
+    assertEquals(6, commandLine.getArguments().length);
+    assertEquals("\"/config dir/\"", commandLine.getArguments()[3]);
+  }
+
+  @Test
+  public void sparsePathWithBothQuotes() throws Exception {
+    properties.put(VCS_CHECKOUT_SPARSE_PATHS, "it's \"quoted\".xml");
+    try {
+      CheckoutProfile.apply(properties);
+      fail();
+    } catch (VcsException expected) {
+
+    }
+  }
+
+  @Test
+  public void invalidDepth() throws Exception {
+    for (String depth : new String[] {"full", "-1"}) {
+      properties.put(VCS_CHECKOUT_DEPTH, depth);
+      try {
+        CheckoutProfile.apply(properties);
+        fail();
+      } catch (VcsException expected) {
+        assertTrue(expected.getMessage().contains(VCS_CHECKOUT_DEPTH));
+      }
+    }
+  }
+
+  @Test
+  public void explicitCommandsWin() throws Exception {
+    properties.put(VCS_COMMAND_LINE_UPDATE, "git pull");
+    Properties result = CheckoutProfile.apply(properties);
+    assertEquals("git pull", result.getProperty(VCS_COMMAND_LINE_UPDATE));
+    assertNull(result.getProperty(VCS_COMMAND_LINE_UPDATE + ".0"));
+    assertEquals(1, CommandSequence.compile(result, VCS_COMMAND_LINE_CHECKOUT).size());
+    assertEquals("git diff --name-only --no-renames ${vcs.previous.revision} ${vcs.current.revision}",
+        result.getProperty(CommandLineVCSConstants.VCS_COMMAND_LINE_CHANGED_FILES + ".0"));
+  }
+
+  @Test
+  public void revisionForSomeWorkingCopies() throws Exception {
+    properties.put(VCS_LOCAL_URL_KEY + ".1", "file://localhost/./other");
+    properties.put(VCS_REVISION_KEY + ".1", "master");
+    try {
+      CheckoutProfile.apply(properties);
+      fail();
+    } catch (VcsException expected) {
+
+    }
+  }
+}
@@ -1,15 +1,27 @@
 package com.adaptris.vcs.commandline;
 
 import com.adaptris.core.management.vcs.VcsConstants;
+import com.adaptris.core.management.vcs.VcsException;
 import com.adaptris.core.management.vcs.VersionControlSystem;
 import com.adaptris.core.stubs.JunitBootstrapProperties;
+import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static com.adaptris.core.management.vcs.VcsConstants.VCS_LOCAL_URL_KEY;
 import static com.adaptris.core.management.vcs.VcsConstants.VCS_REMOTE_REPO_URL_KEY;
@@ -168,6 +180,358 @@ public class CommandLineRVCTest extends CommandLineVCSCase {
   }
 
 
+  @Test
+  public void conditionalUpdateUnchanged() throws Exception {
+    properties.put(CommandLineVCSConstants.VCS_CONDITIONAL_UPDATE, "true");
+    when(mockApi.getLocalRevision(any(File.class))).thenReturn("abc123\n");
+    when(mockApi.getRemoteRevision(anyString(), any(File.class))).thenReturn("abc123\tHEAD\n");
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    rvc.update();
+    verify(mockApi, never()).update(any(File.class));
+    verify(mockApi, never()).update(any(File.class), any(String.class));
+  }
+
+  @Test
+  public void conditionalUpdateChanged() throws Exception {
+    properties.put(CommandLineVCSConstants.VCS_CONDITIONAL_UPDATE, "true");
+    properties.put(VcsConstants.VCS_REVISION_KEY, "revision");
+    when(mockApi.getLocalRevision(any(File.class))).thenReturn("abc123\n");
+    when(mockApi.getRemoteRevision(anyString(), any(File.class), eq("revision"))).thenReturn("def456\trefs/heads/revision\n");
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    rvc.update();
+    verify(mockApi, times(1)).update(any(File.class), eq("revision"));
+  }
+
+  @Test
+  public void conditionalUpdateRecordsTimeSaved() throws Exception {
+    properties.put(CommandLineVCSConstants.VCS_CONDITIONAL_UPDATE, "true");
+    when(mockApi.getLocalRevision(any(File.class))).thenReturn("abc123\n");
+    when(mockApi.getRemoteRevision(anyString(), any(File.class))).thenReturn("def456\tHEAD\n", "abc123\tHEAD\n");
+    when(mockApi.update(any(File.class))).thenAnswer(invocation -> {
+      Thread.sleep(200);
+      return "";
+    });
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    rvc.update();
+    assertEquals(0, rvc.getUpdatesSkipped());
+    rvc.update();
+    verify(mockApi, times(1)).update(any(File.class));
+    assertEquals(1, rvc.getUpdatesSkipped());
+    assertTrue(rvc.getUpdateTimeSaved() >= 150);
+  }
+
+  @Test
+  public void conditionalUpdateCheckFails() throws Exception {
+    properties.put(CommandLineVCSConstants.VCS_CONDITIONAL_UPDATE, "true");
+    when(mockApi.getLocalRevision(any(File.class))).thenThrow(new VcsException("not configured"));
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    rvc.update();
+    verify(mockApi, times(1)).update(any(File.class));
+  }
+
+  @Test
+  public void backgroundUpdateSwapped() throws Exception {
+    properties.put(CommandLineVCSConstants.VCS_BACKGROUND_UPDATE_SWAP, "true");
+    File workingCopy = backgroundWorkingCopy();
+    List<String> updates = new ArrayList<>();
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    rvc.addBackgroundUpdateListener((wc, previous, revision, swapped) -> updates.add(previous + "," + revision + "," + swapped));
+    rvc.update();
+    assertTrue(rvc.backgroundUpdates().get(5, TimeUnit.SECONDS) == null);
+    verify(mockApi, times(1)).update(eq(new File(workingCopy.getPath() + ".staging")));
+    verify(mockApi, times(1)).validate(any(File.class));
+    assertEquals(Arrays.asList("abc123,def456,true"), updates);
+    assertTrue(new File(workingCopy, "updated").exists());
+    assertFalse(new File(workingCopy.getPath() + ".staging", "updated").exists());
+  }
+
+  @Test
+  public void backgroundUpdateWithoutSwap() throws Exception {
+    properties.put(CommandLineVCSConstants.VCS_BACKGROUND_UPDATE_SWAP, "false");
+    File workingCopy = backgroundWorkingCopy();
+    List<String> updates = new ArrayList<>();
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    rvc.addBackgroundUpdateListener((wc, previous, revision, swapped) -> updates.add(previous + "," + revision + "," + swapped));
+    rvc.update();
+    rvc.backgroundUpdates().get(5, TimeUnit.SECONDS);
+    assertEquals(Arrays.asList("abc123,def456,false"), updates);
+    assertFalse(new File(workingCopy, "updated").exists());
+    assertTrue(new File(workingCopy.getPath() + ".staging", "updated").exists());
+  }
+
+  @Test
+  public void backgroundUpdateStagingFromCommands() throws Exception {
+    File workingCopy = backgroundWorkingCopy();
+    File staging = new File(workingCopy.getPath() + ".staging");
+    new File(workingCopy, "adapter.xml").createNewFile();
+    when(mockApi.createStaging(anyString(), any(File.class), any(File.class))).thenAnswer(invocation -> {
+      ((File) invocation.getArguments()[2]).mkdirs();
+      return true;
+    });
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    rvc.update();
+    rvc.backgroundUpdates().get(5, TimeUnit.SECONDS);
+    verify(mockApi, times(1)).createStaging(eq(REMOTE_REPO), eq(workingCopy), eq(staging));
+    // Created by the commands, not copied.
+    assertFalse(new File(staging, "adapter.xml").exists());
+    assertTrue(new File(staging, "updated").exists());
+  }
+
+  @Test
+  public void backgroundUpdateStagingFailureRemoved() throws Exception {
+    File workingCopy = backgroundWorkingCopy();
+    File staging = new File(workingCopy.getPath() + ".staging");
+    when(mockApi.createStaging(anyString(), any(File.class), any(File.class))).thenAnswer(invocation -> {
+      ((File) invocation.getArguments()[2]).mkdirs();
+      throw new VcsException("clone failed");
+    });
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    rvc.update();
+    try {
+      rvc.backgroundUpdates().get(5, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException expected) {
+    }
+    assertFalse(staging.exists());
+    verify(mockApi, never()).update(eq(staging));
+  }
+
+  @Test
+  public void interruptedSwapRecovered() throws Exception {
+    File parent = Files.createTempDirectory("recover").toFile();
+    File workingCopy = new File(parent, "wc");
+    File previous = new File(parent, "wc.previous");
+    assertTrue(previous.mkdirs());
+    assertTrue(new File(previous, "adapter.xml").createNewFile());
+    properties.put(VcsConstants.VCS_LOCAL_URL_KEY, workingCopy.toURI().toURL().toString());
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    rvc.update();
+    assertTrue(new File(workingCopy, "adapter.xml").exists());
+    assertFalse(previous.exists());
+    verify(mockApi, times(1)).update(any(File.class));
+    verify(mockApi, never()).checkout(anyString(), any(File.class));
+  }
+
+  @Test
+  public void backgroundUpdateUnchanged() throws Exception {
+    File workingCopy = backgroundWorkingCopy();
+    when(mockApi.getLocalRevision(any(File.class))).thenReturn("abc123\n");
+    List<String> updates = new ArrayList<>();
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    rvc.addBackgroundUpdateListener((wc, previous, revision, swapped) -> updates.add(revision));
+    rvc.update();
+    rvc.backgroundUpdates().get(5, TimeUnit.SECONDS);
+    assertTrue(updates.isEmpty());
+    assertFalse(new File(workingCopy, "updated").exists());
+  }
+
+  @Test
+  public void pollUpdatesWhenChanged() throws Exception {
+    properties.put(CommandLineVCSConstants.VCS_POLL_INTERVAL, "50");
+    when(mockApi.getLocalRevision(any(File.class))).thenReturn("abc123\n", "def456\n");
+    when(mockApi.getRemoteRevision(anyString(), any(File.class))).thenReturn("def456\tHEAD\n");
+    CountDownLatch updated = new CountDownLatch(1);
+    List<String> updates = new CopyOnWriteArrayList<>();
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    rvc.addBackgroundUpdateListener((wc, previous, revision, swapped) -> {
+      updates.add(previous + "," + revision);
+      updated.countDown();
+    });
+    try {
+      rvc.update();
+      assertTrue(updated.await(5, TimeUnit.SECONDS));
+      // Nothing more to do once the working copy has caught up.
+      Thread.sleep(200);
+    } finally {
+      rvc.stopPolling();
+    }
+    verify(mockApi, times(2)).update(any(File.class));
+    assertEquals(Arrays.asList("abc123,def456"), updates);
+  }
+
+  @Test
+  public void pollWithoutSwapStagesOnce() throws Exception {
+    properties.put(CommandLineVCSConstants.VCS_BACKGROUND_UPDATE_SWAP, "false");
+    properties.put(CommandLineVCSConstants.VCS_POLL_INTERVAL, "100");
+    File workingCopy = backgroundWorkingCopy();
+    when(mockApi.getRemoteRevision(anyString(), any(File.class))).thenReturn("def456\tHEAD\n");
+    List<String> updates = new CopyOnWriteArrayList<>();
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    rvc.addBackgroundUpdateListener((wc, previous, revision, swapped) -> updates.add(previous + "," + revision + "," + swapped));
+    try {
+      rvc.update();
+      rvc.backgroundUpdates().get(5, TimeUnit.SECONDS);
+      // The working copy never moves, but the remote revision is already staged.
+      Thread.sleep(500);
+    } finally {
+      rvc.stopPolling();
+    }
+    verify(mockApi, times(1)).update(eq(new File(workingCopy.getPath() + ".staging")));
+    verify(mockApi, atLeastOnce()).getRemoteRevision(anyString(), any(File.class));
+    assertEquals(Arrays.asList("abc123,def456,false"), updates);
+  }
+
+  @Test
+  public void changedFilesFromIndex() throws Exception {
+    File workingCopy = Files.createTempDirectory("changed").toFile();
+    try {
+      Files.write(new File(workingCopy, "a.xml").toPath(), "a".getBytes());
+      Files.write(new File(workingCopy, "b.xml").toPath(), "b".getBytes());
+      properties.put(VCS_LOCAL_URL_KEY, workingCopy.toURI().toURL().toString());
+      properties.put(CommandLineVCSConstants.VCS_CHANGED_FILES, "index");
+      when(mockApi.update(any(File.class))).thenAnswer(invocation -> {
+        Files.write(new File(workingCopy, "a.xml").toPath(), "changed".getBytes());
+        new File(workingCopy, "b.xml").delete();
+        return null;
+      }).thenReturn(null);
+      List<Set<String>> changes = new CopyOnWriteArrayList<>();
+      CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+      rvc.setApi(mockApi);
+      rvc.addChangedFilesListener((wc, changed) -> changes.add(changed));
+      rvc.update();
+      assertEquals(new TreeSet<>(Arrays.asList("a.xml", "b.xml")), rvc.getChangedFiles(workingCopy));
+      rvc.update();
+      assertEquals(new TreeSet<>(), rvc.getChangedFiles(workingCopy));
+      assertEquals(2, changes.size());
+      assertEquals(new TreeSet<>(Arrays.asList("a.xml", "b.xml")), changes.get(0));
+    } finally {
+      FileUtils.deleteQuietly(workingCopy);
+      FileUtils.deleteQuietly(new File(workingCopy.getPath() + ".changes"));
+    }
+  }
+
+  @Test
+  public void changedFilesFromCommand() throws Exception {
+    properties.put(CommandLineVCSConstants.VCS_CHANGED_FILES, "command");
+    Set<String> changed = new TreeSet<>(Arrays.asList("config/adapter.xml"));
+    when(mockApi.getLocalRevision(any(File.class))).thenReturn("abc123\n", "def456\n");
+    when(mockApi.getChangedFiles(any(File.class), eq("abc123"), eq("def456"))).thenReturn(changed);
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    List<Set<String>> changes = new ArrayList<>();
+    rvc.addChangedFilesListener((wc, files) -> changes.add(files));
+    rvc.update();
+    assertEquals(Arrays.asList(changed), changes);
+    assertEquals(changed, rvc.getChangedFiles(temporaryDir));
+  }
+
+  @Test
+  public void coldStartFromSnapshot() throws Exception {
+    File parent = Files.createTempDirectory("snapshot").toFile();
+    try {
+      File original = new File(parent, "original");
+      new File(original, ".git").mkdirs();
+      File snapshot = new File(parent, "working-copy.zip");
+      WorkingCopySnapshot.write(original, snapshot, "abc123");
+      File workingCopy = new File(parent, "working-copy");
+      properties.put(VCS_LOCAL_URL_KEY, workingCopy.toURI().toURL().toString());
+      properties.put(CommandLineVCSConstants.VCS_SNAPSHOT_FILE, snapshot.getPath());
+      when(mockApi.getLocalRevision(any(File.class))).thenReturn("def456\n");
+      CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+      rvc.setApi(mockApi);
+      rvc.update();
+      assertTrue(new File(workingCopy, ".git").isDirectory());
+      verify(mockApi, never()).checkout(anyString(), any(File.class));
+      verify(mockApi, times(1)).update(any(File.class));
+      // Updated, so the snapshot is too.
+      rvc.snapshotWrites().get(5, TimeUnit.SECONDS);
+      assertEquals("def456", WorkingCopySnapshot.revision(snapshot));
+    } finally {
+      FileUtils.deleteQuietly(parent);
+    }
+  }
+
+  @Test
+  public void snapshotWrittenOncePerRevision() throws Exception {
+    File parent = Files.createTempDirectory("snapshot").toFile();
+    try {
+      File workingCopy = new File(parent, "working-copy");
+      new File(workingCopy, ".git").mkdirs();
+      File snapshot = new File(parent, "working-copy.zip");
+      properties.put(VCS_LOCAL_URL_KEY, workingCopy.toURI().toURL().toString());
+      properties.put(CommandLineVCSConstants.VCS_SNAPSHOT_FILE, snapshot.getPath());
+      when(mockApi.getLocalRevision(any(File.class))).thenReturn("abc123\n");
+      CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+      rvc.setApi(mockApi);
+      rvc.update();
+      rvc.snapshotWrites().get(5, TimeUnit.SECONDS);
+      assertEquals("abc123", WorkingCopySnapshot.revision(snapshot));
+      long written = snapshot.lastModified();
+      snapshot.setLastModified(written - 60000);
+      rvc.update();
+      rvc.update();
+      rvc.snapshotWrites().get(5, TimeUnit.SECONDS);
+      // Still at the same revision, so not written again.
+      assertEquals(written - 60000, snapshot.lastModified());
+      verify(mockApi, times(3)).update(any(File.class));
+    } finally {
+      FileUtils.deleteQuietly(parent);
+    }
+  }
+
+  // A working copy at abc123, where updating the staging copy takes it to def456.
+  private File backgroundWorkingCopy() throws Exception {
+    File parent = Files.createTempDirectory("background-update").toFile();
+    parent.deleteOnExit();
+    File workingCopy = new File(parent, "working-copy");
+    workingCopy.mkdirs();
+    properties.put(VCS_LOCAL_URL_KEY, workingCopy.toURI().toURL().toString());
+    properties.put(CommandLineVCSConstants.VCS_BACKGROUND_UPDATE, "true");
+    when(mockApi.getLocalRevision(any(File.class))).thenAnswer(
+        invocation -> ((File) invocation.getArguments()[0]).getName().endsWith(".staging") ? "def456\n" : "abc123\n");
+    when(mockApi.update(any(File.class))).thenAnswer(invocation -> {
+      new File((File) invocation.getArguments()[0], "updated").createNewFile();
+      return "";
+    });
+    return workingCopy;
+  }
+
+  @Test
+  public void updateMultipleWorkingCopies() throws Exception {
+    properties.put(VCS_LOCAL_URL_KEY + ".1", temporaryDir.toURI().toURL().toString());
+    properties.put(VCS_REMOTE_REPO_URL_KEY + ".1", REMOTE_REPO);
+    properties.put(VCS_LOCAL_URL_KEY + ".2", temporaryDir.toURI().toURL().toString());
+    properties.put(VCS_REMOTE_REPO_URL_KEY + ".2", REMOTE_REPO);
+    properties.put(VcsConstants.VCS_REVISION_KEY + ".2", "revision");
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    rvc.update();
+    verify(mockApi, times(2)).update(any(File.class));
+    verify(mockApi, times(1)).update(any(File.class), eq("revision"));
+    verify(mockApi, never()).checkout(anyString(), any(File.class));
+  }
+
+  @Test
+  public void checkoutMultipleWorkingCopiesFailure() throws Exception {
+    properties.remove(VCS_LOCAL_URL_KEY);
+    properties.put(VCS_LOCAL_URL_KEY + ".1", temporaryDir.toURI().toURL().toString());
+    properties.put(VCS_REMOTE_REPO_URL_KEY + ".1", REMOTE_REPO);
+    properties.put(VCS_LOCAL_URL_KEY + ".2", temporaryDir.toURI().toURL().toString());
+    properties.put(VCS_REMOTE_REPO_URL_KEY + ".2", "vcs://broken");
+    doThrow(new VcsException("broken")).when(mockApi).checkout(eq("vcs://broken"), any(File.class));
+    CommandLineRVC rvc = new CommandLineRVC(new JunitBootstrapProperties(properties));
+    rvc.setApi(mockApi);
+    try {
+      rvc.checkout();
+      fail();
+    } catch (VcsException expected) {
+      assertEquals("broken", expected.getMessage());
+    }
+    verify(mockApi, times(1)).checkout(eq("vcs://broken"), any(File.class));
+  }
+
   @Test
   public void apiWithSetBootstrapProperties() throws Exception {
     CommandLineRVC rvc = new CommandLineRVC();
@@ -4,36 +4,68 @@ import static com.adaptris.core.management.vcs.VcsConstants.VCS_LOCAL_URL_KEY;
 import static com.adaptris.core.management.vcs.VcsConstants.VCS_REMOTE_REPO_URL_KEY;
 import static com.adaptris.core.management.vcs.VcsConstants.VCS_REVISION_KEY;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_ADD_AND_COMMIT;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_BATCH_MAX_LENGTH;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_BATCH_SIZE;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_CHANGED_FILES;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_CHECKOUT;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_COMMIT;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_EXECUTION;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_LOCK_TIMEOUT;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_LOCAL_REVISION;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_METRICS_JMX;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_MIRROR_CREATE;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_MIRROR_UPDATE;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_RECURSIVE_ADD;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_STAGING;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_REMOTE_REVISION;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_TEST_CONNECTION;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_TIMEOUT;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMAND_LINE_UPDATE;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_COMMIT_MESSAGE_KEY;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_LIMIT_KEY;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_LOCAL_FILES_KEY;
 import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_LOCAL_FILE_KEY;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_LOCAL_REVISION_RESOLVER;
+import static com.adaptris.vcs.commandline.CommandLineVCSConstants.VCS_MIRROR_DIR;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
 
+import javax.management.ObjectName;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.ExecuteException;
 import org.apache.commons.exec.Executor;
+import org.apache.commons.exec.util.StringUtils;
+import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -56,7 +88,7 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     String result = vcs.testConnection(REMOTE_REPO, temporaryDir);
     verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(), captureWorkingDir.capture(), captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals("test.connection", result);
     assertEquals(VCS_COMMAND_LINE_TEST_CONNECTION, captorFilterKey.getValue());
     assertEquals(REMOTE_REPO, captorSubMap.getValue().get(VCS_REMOTE_REPO_URL_KEY));
@@ -69,7 +101,7 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     String result = vcs.testConnection(REMOTE_REPO, null);
     verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(), captureWorkingDir.capture(), captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals("test.connection", result);
     assertEquals(VCS_COMMAND_LINE_TEST_CONNECTION, captorFilterKey.getValue());
     assertEquals(REMOTE_REPO, captorSubMap.getValue().get(VCS_REMOTE_REPO_URL_KEY));
@@ -82,7 +114,7 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     String result = vcs.checkout(REMOTE_REPO, temporaryDir);
     verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals("checkout", result);
     assertEquals(VCS_COMMAND_LINE_CHECKOUT, captorFilterKey.getValue());
     assertEquals(REMOTE_REPO, captorSubMap.getValue().get(VCS_REMOTE_REPO_URL_KEY));
@@ -95,7 +127,7 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     String result = vcs.checkout(REMOTE_REPO, temporaryDir, REVISION);
     verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals("checkout", result);
     assertEquals(VCS_COMMAND_LINE_CHECKOUT, captorFilterKey.getValue());
     assertEquals(REMOTE_REPO, captorSubMap.getValue().get(VCS_REMOTE_REPO_URL_KEY));
@@ -109,7 +141,7 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     String result = vcs.update(temporaryDir);
     verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals("update", result);
     assertEquals(VCS_COMMAND_LINE_UPDATE, captorFilterKey.getValue());
     assertEquivalentFile(temporaryDir, captorSubMap.getValue().get(VCS_LOCAL_URL_KEY));
@@ -121,7 +153,7 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     String result = vcs.update(temporaryDir, REVISION);
     verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals("update", result);
     assertEquals(VCS_COMMAND_LINE_UPDATE, captorFilterKey.getValue());
     assertEquivalentFile(temporaryDir, captorSubMap.getValue().get(VCS_LOCAL_URL_KEY));
@@ -134,7 +166,7 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     vcs.commit(temporaryDir, COMMIT_MESSAGE);
     verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals(VCS_COMMAND_LINE_COMMIT, captorFilterKey.getValue());
     assertEquivalentFile(temporaryDir, captorSubMap.getValue().get(VCS_LOCAL_URL_KEY));
     assertEquals(COMMIT_MESSAGE, captorSubMap.getValue().get(VCS_COMMIT_MESSAGE_KEY));
@@ -146,7 +178,7 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     vcs.recursiveAdd(temporaryDir);
     verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals(VCS_COMMAND_LINE_RECURSIVE_ADD, captorFilterKey.getValue());
     assertEquivalentFile(temporaryDir, captorSubMap.getValue().get(VCS_LOCAL_URL_KEY));
     assertNull(captureRepKey.getValue());
@@ -157,7 +189,7 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     vcs.addAndCommit(temporaryDir, COMMIT_MESSAGE, "file1");
     verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals(VCS_COMMAND_LINE_ADD_AND_COMMIT, captorFilterKey.getValue());
     assertEquivalentFile(temporaryDir, captorSubMap.getValue().get(VCS_LOCAL_URL_KEY));
     assertEquals(COMMIT_MESSAGE, captorSubMap.getValue().get(VCS_COMMIT_MESSAGE_KEY));
@@ -170,7 +202,7 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     vcs.addAndCommit(temporaryDir, COMMIT_MESSAGE, "file1", "file2");
     verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(2)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(2)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals(VCS_COMMAND_LINE_ADD_AND_COMMIT, captorFilterKey.getValue());
     assertEquivalentFile(temporaryDir, captorSubMap.getValue().get(VCS_LOCAL_URL_KEY));
     assertEquals(COMMIT_MESSAGE, captorSubMap.getValue().get(VCS_COMMIT_MESSAGE_KEY));
@@ -179,12 +211,94 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     assertEquals(VCS_LOCAL_FILE_KEY, captureRepKey.getValue());
   }
 
+  @Test
+  public void addAndCommitBatched() throws Exception {
+    Properties properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_ADD_AND_COMMIT + ".0", "echo -n ${vcs.local.files}");
+    properties.put(VCS_COMMAND_LINE_ADD_AND_COMMIT + ".1", "echo -n \" commit\"");
+    properties.put(VCS_COMMAND_LINE_BATCH_SIZE, "2");
+    CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties));
+    vcs.addAndCommit(temporaryDir, COMMIT_MESSAGE, "file1", "file2", "file3");
+    // 2 batches + 1 commit
+    verify(vcs, times(3)).executeCommand(any(Executor.class),any(CommandLine.class));
+  }
+
+  @Test
+  public void addAndCommitFileList() throws Exception {
+    Properties properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_ADD_AND_COMMIT + ".0", "cat ${vcs.local.files.list}");
+    properties.put(VCS_COMMAND_LINE_ADD_AND_COMMIT + ".1", "echo -n \"commit\"");
+    CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties));
+    Map<String, String> substitutions = new HashMap<>();
+    substitutions.put(VCS_LOCAL_FILE_KEY + ".0", "file1");
+    substitutions.put(VCS_LOCAL_FILE_KEY + ".1", "file 2");
+    String result = vcs.commandLineAction(VCS_COMMAND_LINE_ADD_AND_COMMIT, substitutions, temporaryDir, VCS_LOCAL_FILE_KEY);
+    verify(vcs, times(2)).executeCommand(any(Executor.class),any(CommandLine.class));
+    assertEquals("file1\nfile 2\ncommit", result.replace("\r", ""));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void batchedWithUnknownRepeatedKey() throws Exception {
+    Properties properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_ADD_AND_COMMIT + ".0", "echo -n ${vcs.revision}");
+    Map<String, String> substitutions = new HashMap<>();
+    substitutions.put(VCS_REVISION_KEY + ".0", "abc");
+    new CommandLineVCS(properties).commandLineAction(VCS_COMMAND_LINE_ADD_AND_COMMIT, substitutions, temporaryDir, VCS_REVISION_KEY);
+  }
+
+  @Test
+  public void getBatches() throws Exception {
+    Properties properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_BATCH_SIZE, "100");
+    properties.put(VCS_COMMAND_LINE_BATCH_MAX_LENGTH, "60");
+    CommandLineVCS vcs = new CommandLineVCS(properties);
+    Map<String, String> map = new HashMap<>();
+    for (int i = 0; i < 12; i++) {
+      map.put(VCS_LOCAL_FILE_KEY + "." + i, "file" + i);
+    }
+    CommandTemplate command = CommandTemplate.compile("git add ${vcs.local.files}");
+    List<List<String>> batches = vcs.getBatches(command, map, vcs.getRepeatedKeys(map, VCS_LOCAL_FILE_KEY));
+    assertEquals(3, batches.size());
+    assertEquals(Arrays.asList("file0", "file1", "file2", "file3"), batches.get(0));
+    assertEquals(Arrays.asList("file8", "file9", "file10", "file11"), batches.get(2));
+    assertEquals("git add file0 file1 file2 file3",
+        StringUtils.toString(command.toCommandLine(map, VCS_LOCAL_FILES_KEY, batches.get(0)).toStrings(), " "));
+  }
+
+  @Test
+  public void getCommandsCached() throws Exception {
+    Properties properties = new Properties();
+    properties.put("multi.command.1", "echo -n \"multi.command.1\"");
+    properties.put("multi.command.0", "echo -n \"multi.command.0\"");
+    CommandLineVCS vcs = new CommandLineVCS(properties);
+    CommandSequence commands = vcs.getCommands("multi.command");
+    assertEquals(2, commands.size());
+    assertEquals("echo -n \"multi.command.0\"", commands.getSteps().get(0).getTemplate().getCommand());
+    assertSame(commands, vcs.getCommands("multi.command"));
+    properties.put("multi.command.2", "echo -n \"multi.command.2\"");
+    assertEquals(3, vcs.getCommands("multi.command").size());
+  }
+
+  @Test
+  public void getCommandsWithTimeouts() throws Exception {
+    Properties properties = new Properties();
+    properties.put("multi.command.0", "echo -n \"multi.command.0\"");
+    properties.put("multi.command.0.timeout", "100");
+    properties.put("multi.command.1", "echo -n \"multi.command.1\"");
+    properties.put("multi.command.timeout", "500");
+    CommandSequence commands = new CommandLineVCS(properties).getCommands("multi.command");
+    assertEquals(2, commands.size());
+    assertEquals(500, commands.getTimeout());
+    assertEquals(100, commands.getSteps().get(0).getTimeout(60000));
+    assertEquals(60000, commands.getSteps().get(1).getTimeout(60000));
+  }
+
   @Test
   public void getRemoteRevision() throws Exception {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     String result = vcs.getRemoteRevision(REMOTE_REPO, temporaryDir);
     verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals("remote.revision", result);
     assertEquals(VCS_COMMAND_LINE_REMOTE_REVISION, captorFilterKey.getValue());
     assertEquivalentFile(temporaryDir, captorSubMap.getValue().get(VCS_LOCAL_URL_KEY));
@@ -192,25 +306,166 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     assertNull(captureRepKey.getValue());
   }
 
+  @Test
+  public void getRemoteRevisionWithRevision() throws Exception {
+    CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
+    vcs.getRemoteRevision(REMOTE_REPO, temporaryDir, REVISION);
+    verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
+    assertEquals(VCS_COMMAND_LINE_REMOTE_REVISION, captorFilterKey.getValue());
+    assertEquals(REVISION, captorSubMap.getValue().get(VCS_REVISION_KEY));
+  }
+
+  @Test
+  public void getRemoteRevisions() throws Exception {
+    File dir = Files.createTempDirectory("revisions").toFile();
+    try {
+      File remote = new File(dir, "remote");
+      remote.createNewFile();
+      File missing = new File(dir, "missing");
+      Map<File, String> workingCopies = new LinkedHashMap<>();
+      for (String name : Arrays.asList("a", "b", "c")) {
+        File workingCopy = new File(dir, name);
+        workingCopy.mkdir();
+        workingCopies.put(workingCopy, name.equals("c") ? missing.getAbsolutePath() : remote.getAbsolutePath());
+      }
+      Properties properties = new Properties();
+      properties.put(VCS_COMMAND_LINE_REMOTE_REVISION, "ls ${vcs.remote.repo.url}");
+      CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties));
+      RemoteRevisions result = vcs.getRemoteRevisions(workingCopies);
+      // a and b share a remote.
+      verify(vcs, times(2)).executeCommand(any(Executor.class), any(CommandLine.class));
+      assertTrue(result.hasErrors());
+      assertEquals(Arrays.asList(new File(dir, "a"), new File(dir, "b")), new ArrayList<>(result.getRevisions().keySet()));
+      assertEquals(remote.getAbsolutePath(), result.getRevision(new File(dir, "a")).trim());
+      assertEquals(remote.getAbsolutePath(), result.getRevision(new File(dir, "b")).trim());
+      assertNull(result.getRevision(new File(dir, "c")));
+      assertNotNull(result.getError(new File(dir, "c")));
+      assertNull(result.getError(new File(dir, "a")));
+      assertFalse(vcs.getRemoteRevisions(new HashMap<File, String>()).hasErrors());
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  @Test
+  public void checkoutWithMirror() throws Exception {
+    File mirrors = Files.createTempDirectory("mirrors").toFile();
+    try {
+      Properties properties = new Properties();
+      properties.put(VCS_MIRROR_DIR, mirrors.getAbsolutePath());
+      properties.put(VCS_COMMAND_LINE_MIRROR_CREATE, "mkdir ${vcs.mirror.url}");
+      // Would fail the checkout if it were run; the mirror was only just created.
+      properties.put(VCS_COMMAND_LINE_MIRROR_UPDATE, "false");
+      properties.put(VCS_COMMAND_LINE_CHECKOUT, "echo -n ${vcs.mirror.url}");
+      CommandLineVCS vcs = new CommandLineVCS(properties);
+      File mirror = vcs.refreshMirror(REMOTE_REPO);
+      assertTrue(mirror.isDirectory());
+      assertEquals(mirror.getPath(), vcs.checkout(REMOTE_REPO, temporaryDir));
+      assertEquals(mirror.getPath(), vcs.checkout(REMOTE_REPO, temporaryDir, REVISION));
+      assertNull(new CommandLineVCS(new Properties()).refreshMirror(REMOTE_REPO));
+    } finally {
+      FileUtils.deleteQuietly(mirrors);
+    }
+  }
+
+  @Test
+  public void createStaging() throws Exception {
+    File dir = Files.createTempDirectory("staging").toFile();
+    try {
+      File workingCopy = new File(dir, "wc");
+      File staging = new File(dir, "wc.staging");
+      assertTrue(workingCopy.mkdirs());
+      assertTrue(new File(workingCopy, "adapter.xml").createNewFile());
+      Properties properties = new Properties();
+      properties.put(VCS_COMMAND_LINE_LOCK_TIMEOUT, "500");
+      assertFalse(new CommandLineVCS(properties).createStaging(REMOTE_REPO, workingCopy, staging));
+      properties.put(VCS_COMMAND_LINE_STAGING, "cp -r ${vcs.workingcopy.url} ${vcs.staging.url}");
+      CommandLineVCS vcs = new CommandLineVCS(properties);
+      // Only needs to read the working copy, so isn't held up by another reader.
+      WorkingCopyLocks.Lease lease = vcs.lockWorkingCopy(workingCopy, true);
+      try {
+        assertTrue(vcs.createStaging(REMOTE_REPO, workingCopy, staging));
+      } finally {
+        lease.close();
+      }
+      assertTrue(new File(staging, "adapter.xml").exists());
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  @Test
+  public void getChangedFiles() throws Exception {
+    Properties properties = new Properties();
+    assertNull(new CommandLineVCS(properties).getChangedFiles(temporaryDir, "abc", "def"));
+    properties.put(VCS_COMMAND_LINE_CHANGED_FILES + ".0", "echo config/a.xml");
+    properties.put(VCS_COMMAND_LINE_CHANGED_FILES + ".1", "echo ${vcs.previous.revision}-${vcs.current.revision}.xml");
+    assertEquals(new TreeSet<>(Arrays.asList("abc-def.xml", "config/a.xml")),
+        new CommandLineVCS(properties).getChangedFiles(temporaryDir, "abc", "def"));
+  }
+
   @Test
   public void getLocalRevision() throws Exception {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     String result = vcs.getLocalRevision(temporaryDir);
     verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals("local.revision", result);
     assertEquals(VCS_COMMAND_LINE_LOCAL_REVISION, captorFilterKey.getValue());
     assertEquivalentFile(temporaryDir, captorSubMap.getValue().get(VCS_LOCAL_URL_KEY));
     assertNull(captureRepKey.getValue());
   }
 
+  @Test
+  public void getLocalRevisionResolved() throws Exception {
+    File workingCopy = Files.createTempDirectory("resolved").toFile();
+    try {
+      File head = new File(workingCopy, ".git/HEAD");
+      head.getParentFile().mkdirs();
+      Files.write(head.toPath(), "0123456789abcdef0123456789abcdef01234567\n".getBytes("UTF-8"));
+      CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
+      vcs.getCommandProperties().put(VCS_LOCAL_REVISION_RESOLVER, "git");
+      assertEquals("0123456789abcdef0123456789abcdef01234567", vcs.getLocalRevision(workingCopy));
+      verify(vcs, never()).executeCommand(any(Executor.class), any(CommandLine.class));
+      // Not a git working copy, so it's down to the command.
+      assertEquals("local.revision", vcs.getLocalRevision(temporaryDir));
+      verify(vcs, times(1)).executeCommand(any(Executor.class), any(CommandLine.class));
+    } finally {
+      FileUtils.deleteQuietly(workingCopy);
+    }
+  }
+
+  @Test
+  public void getLocalRevisionUnknownResolver() throws Exception {
+    CommandLineVCS vcs = new CommandLineVCS();
+    vcs.getCommandProperties().put(VCS_LOCAL_REVISION_RESOLVER, "com.example.NoSuchResolver");
+    try {
+      vcs.getLocalRevision(temporaryDir);
+      fail();
+    } catch (VcsException expected) {
+      assertEquals("Failed to create revision resolver [com.example.NoSuchResolver]", expected.getMessage());
+    }
+  }
+
+  @Test
+  public void getLocalRevisionNotAResolver() throws Exception {
+    CommandLineVCS vcs = new CommandLineVCS();
+    vcs.getCommandProperties().put(VCS_LOCAL_REVISION_RESOLVER, String.class.getName());
+    try {
+      vcs.getLocalRevision(temporaryDir);
+      fail();
+    } catch (VcsException expected) {
+      assertEquals("Failed to create revision resolver [java.lang.String]", expected.getMessage());
+    }
+  }
+
   @Test
   public void getRemoteRevisionHistoryNotEnoughItems() throws Exception {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     vcs.getCommandProperties().put(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY, "echo -n \"revisioncomment\"");
     List<RevisionHistoryItem> result = vcs.getRemoteRevisionHistory(REMOTE_REPO, temporaryDir, 1);
-    verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture(), any(OutputConsumer.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY, captorFilterKey.getValue());
     assertEquivalentFile(temporaryDir, captorSubMap.getValue().get(VCS_LOCAL_URL_KEY));
     assertEquals(REMOTE_REPO, captorSubMap.getValue().get(VCS_REMOTE_REPO_URL_KEY));
@@ -224,8 +479,8 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
   public void getRemoteRevisionHistory() throws Exception {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
     List<RevisionHistoryItem> result = vcs.getRemoteRevisionHistory(REMOTE_REPO, temporaryDir, 1);
-    verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture(), any(OutputConsumer.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY, captorFilterKey.getValue());
     assertEquivalentFile(temporaryDir, captorSubMap.getValue().get(VCS_LOCAL_URL_KEY));
     assertEquals(REMOTE_REPO, captorSubMap.getValue().get(VCS_REMOTE_REPO_URL_KEY));
@@ -243,8 +498,8 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     properties.put(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY, "echo -n \"revision comment something else\"");
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties));
     List<RevisionHistoryItem> result = vcs.getRemoteRevisionHistory(REMOTE_REPO, temporaryDir, 1);
-    verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture(), any(OutputConsumer.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY, captorFilterKey.getValue());
     assertEquivalentFile(temporaryDir, captorSubMap.getValue().get(VCS_LOCAL_URL_KEY));
     assertEquals(REMOTE_REPO, captorSubMap.getValue().get(VCS_REMOTE_REPO_URL_KEY));
@@ -261,13 +516,13 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     Properties properties = new Properties();
     properties.put(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY, "echo -n \"revision1 comment1 something else\nrevision2 comment2 something else\"");
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties));
-    List<RevisionHistoryItem> result = vcs.getRemoteRevisionHistory(REMOTE_REPO, temporaryDir, 1);
-    verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture());
-    verify(vcs, times(1)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    List<RevisionHistoryItem> result = vcs.getRemoteRevisionHistory(REMOTE_REPO, temporaryDir, 2);
+    verify(vcs, times(1)).commandLineAction(captorFilterKey.capture(),captorSubMap.capture(),captureWorkingDir.capture(),captureRepKey.capture(), any(OutputConsumer.class));
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY, captorFilterKey.getValue());
     assertEquivalentFile(temporaryDir, captorSubMap.getValue().get(VCS_LOCAL_URL_KEY));
     assertEquals(REMOTE_REPO, captorSubMap.getValue().get(VCS_REMOTE_REPO_URL_KEY));
-    assertEquals("1", captorSubMap.getValue().get(VCS_LIMIT_KEY));
+    assertEquals("2", captorSubMap.getValue().get(VCS_LIMIT_KEY));
     assertNull(captureRepKey.getValue());
     assertNotNull(result);
     assertEquals(2, result.size());
@@ -277,6 +532,55 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     assertIsPartOf("comment2 something else", result.get(1).getComment());
   }
 
+  @Test
+  public void getRemoteRevisionHistoryStopsAtLimit() throws Exception {
+    Properties properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY + ".0", "yes \"revision comment\"");
+    properties.put(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY + ".1", "echo \"never executed\"");
+    CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties));
+    List<RevisionHistoryItem> result = vcs.getRemoteRevisionHistory(REMOTE_REPO, temporaryDir, 5);
+    verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
+    assertEquals(5, result.size());
+    assertIsPartOf("revision", result.get(4).getRevision());
+    assertIsPartOf("comment", result.get(4).getComment());
+  }
+
+  @Test
+  public void streamRemoteRevisionHistory() throws Exception {
+    Properties properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY, "yes \"revision comment\"");
+    CommandLineVCS vcs = new CommandLineVCS(properties);
+    try (Stream<RevisionHistoryItem> history = vcs.streamRemoteRevisionHistory(REMOTE_REPO, temporaryDir, 0)) {
+      assertEquals(1000, history.limit(1000).count());
+    }
+    try (Stream<RevisionHistoryItem> history = vcs.streamRemoteRevisionHistory(REMOTE_REPO, temporaryDir, 10)) {
+      assertEquals(10, history.count());
+    }
+  }
+
+  @Test
+  public void streamRemoteRevisionHistoryFailure() throws Exception {
+    Properties properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_REMOTE_REVISION_HISTORY, "false");
+    CommandLineVCS vcs = new CommandLineVCS(properties);
+    try (Stream<RevisionHistoryItem> history = vcs.streamRemoteRevisionHistory(REMOTE_REPO, temporaryDir, 10)) {
+      history.count();
+      fail();
+    } catch (IllegalStateException expected) {
+      assertTrue(expected.getCause() instanceof VcsException);
+    }
+  }
+
+  @Test
+  public void parseRevisionHistory() throws Exception {
+    assertNull(RevisionHistoryParser.parse(""));
+    assertNull(RevisionHistoryParser.parse("revision"));
+    assertNull(RevisionHistoryParser.parse("  revision   "));
+    RevisionHistoryItem item = RevisionHistoryParser.parse("  revision \t comment  with spaces");
+    assertEquals("revision", item.getRevision());
+    assertEquals("comment  with spaces", item.getComment());
+  }
+
   @Test
   public void commandLineActionNoCommands() throws Exception {
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS());
@@ -286,7 +590,7 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     } catch (VcsException expected){
       assertEquals("CommandLine: Commands for [no.command] not configured.", expected.getMessage());
     }
-    verify(vcs, never()).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, never()).executeCommand(any(Executor.class),any(CommandLine.class));
   }
 
   @Test
@@ -298,10 +602,349 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     properties.put("multi.command.1", "echo -n \"multi.command.1\"");
     CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties));
     String result = vcs.commandLineAction("multi.command",new HashMap<String, String>(), temporaryDir);
-    verify(vcs, times(2)).executeCommand(any(Executor.class),anyString(),anyMapOf(String.class, String.class));
+    verify(vcs, times(2)).executeCommand(any(Executor.class),any(CommandLine.class));
     assertEquals("multi.command.0...multi.command.1", result);
   }
 
+  @Test
+  public void commandLineActionRetried() throws Exception {
+    Properties properties = new Properties();
+    properties.put("retried.command", "echo -n \"retried\"");
+    properties.put("retried.command.retry.attempts", "3");
+    properties.put("retried.command.retry.backoff", "10");
+    CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties));
+    doThrow(new VcsException("failed", new ExecuteException("failed", 128))).doCallRealMethod().when(vcs)
+        .executeCommand(any(Executor.class), any(CommandLine.class));
+    assertEquals("retried", vcs.commandLineAction("retried.command", new HashMap<String, String>(), temporaryDir));
+    verify(vcs, times(2)).executeCommand(any(Executor.class), any(CommandLine.class));
+  }
+
+  @Test
+  public void commandLineActionRetriedAfterRemovingWorkingCopy() throws Exception {
+    Properties properties = new Properties();
+    properties.put("retried.command", "echo -n \"retried\"");
+    properties.put("retried.command.retry.attempts", "2");
+    properties.put("retried.command.retry.backoff", "10");
+    File workingCopy = new File(temporaryDir, "retried");
+    CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties));
+    doAnswer(invocation -> {
+      workingCopy.mkdirs();
+      throw new VcsException("failed", new ExecuteException("failed", 128));
+    }).doAnswer(invocation -> {
+      assertFalse(workingCopy.exists());
+      return invocation.callRealMethod();
+    }).when(vcs).executeCommand(any(Executor.class), any(CommandLine.class));
+    assertEquals("retried", vcs.commandLineAction("retried.command", new HashMap<String, String>(), workingCopy));
+    verify(vcs, times(2)).executeCommand(any(Executor.class), any(CommandLine.class));
+  }
+
+  @Test
+  public void commandLineActionRetriesShareTimeBudget() throws Exception {
+    Properties properties = new Properties();
+    properties.put("retried.command", "echo -n \"retried\"");
+    properties.put("retried.command.timeout", "500");
+    properties.put("retried.command.retry.attempts", "10");
+    properties.put("retried.command.retry.backoff", "10");
+    CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties));
+    doAnswer(invocation -> {
+      Thread.sleep(200);
+      throw new VcsException("failed", new ExecuteException("failed", 128));
+    }).when(vcs).executeCommand(any(Executor.class), any(CommandLine.class));
+    long start = System.currentTimeMillis();
+    try {
+      vcs.commandLineAction("retried.command", new HashMap<String, String>(), temporaryDir);
+      fail();
+    } catch (VcsException expected) {
+    }
+    assertTrue(System.currentTimeMillis() - start < 1000);
+    verify(vcs, atMost(3)).executeCommand(any(Executor.class), any(CommandLine.class));
+  }
+
+  @Test
+  public void commandLineActionNotRetriedForOtherExitCodes() throws Exception {
+    Properties properties = new Properties();
+    properties.put("retried.command", "false");
+    properties.put("retried.command.retry.attempts", "3");
+    properties.put("retried.command.retry.backoff", "10");
+    properties.put("retried.command.retry.exit.codes", "128, 255");
+    CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties));
+    try {
+      vcs.commandLineAction("retried.command", new HashMap<String, String>(), temporaryDir);
+      fail();
+    } catch (VcsException expected) {
+    }
+    verify(vcs, times(1)).executeCommand(any(Executor.class), any(CommandLine.class));
+  }
+
+  @Test
+  public void getRemoteRevisionHedged() throws Exception {
+    Properties properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_REMOTE_REVISION, "echo -n remote.revision");
+    properties.put(VCS_COMMAND_LINE_REMOTE_REVISION + ".hedge.after", "100");
+    try (CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties))) {
+      // The first attempt stalls; the second one should answer for it.
+      doAnswer(invocation -> {
+        Thread.sleep(5000);
+        return invocation.callRealMethod();
+      }).doCallRealMethod().when(vcs).executeCommand(any(Executor.class), any(CommandLine.class));
+      long start = System.currentTimeMillis();
+      assertEquals("remote.revision", vcs.getRemoteRevision(REMOTE_REPO, temporaryDir));
+      assertTrue(System.currentTimeMillis() - start < 4000);
+      verify(vcs, times(2)).executeCommand(any(Executor.class), any(CommandLine.class));
+    }
+  }
+
+  @Test
+  public void commandLineActionReusesThreads() throws Exception {
+    Properties properties = new Properties();
+    properties.put("reused.command", "echo -n \"reused\"");
+    CommandLineVCS vcs = new CommandLineVCS(properties);
+    vcs.commandLineAction("reused.command", new HashMap<String, String>(), temporaryDir);
+    long threads = CommandMetrics.jmx().getThreadsStarted();
+    long tasks = CommandMetrics.jmx().getThreadTasks();
+    for (int i = 0; i < 20; i++) {
+      assertEquals("reused", vcs.commandLineAction("reused.command", new HashMap<String, String>(), temporaryDir));
+    }
+    // Two output pumps per command, without a thread each.
+    assertTrue(CommandMetrics.jmx().getThreadTasks() - tasks >= 40);
+    assertTrue(CommandMetrics.jmx().getThreadsStarted() - threads < 10);
+  }
+
+  @Test
+  public void commandLineActionOutputListener() throws Exception {
+    Properties properties = new Properties();
+    properties.put("multi.command.0", "echo \"multi.command.0\"");
+    properties.put("multi.command.1", "echo \"multi.command.1\"");
+    CommandLineVCS vcs = new CommandLineVCS(properties);
+    final List<String> lines = new ArrayList<>();
+    vcs.addOutputListener((command, line) -> lines.add(line));
+    vcs.commandLineAction("multi.command",new HashMap<String, String>(), temporaryDir);
+    assertEquals(2, lines.size());
+    assertEquals("multi.command.0", lines.get(0));
+    assertEquals("multi.command.1", lines.get(1));
+  }
+
+  @Test
+  public void commandLineActionSession() throws Exception {
+    Properties properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_EXECUTION, "session");
+    properties.put("multi.command.0", "echo -n \"multi.command.0...\"");
+    properties.put("multi.command.1", "echo -n \"multi.command.1\"");
+    try (CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties))) {
+      String result = vcs.commandLineAction("multi.command",new HashMap<String, String>(), temporaryDir);
+      verify(vcs, times(2)).executeCommand(any(Executor.class),any(CommandLine.class));
+      assertEquals("multi.command.0...multi.command.1", result);
+      assertEquals(result, vcs.commandLineAction("multi.command",new HashMap<String, String>(), temporaryDir));
+    }
+  }
+
+  @Test
+  public void commandLineActionSessionFailure() throws Exception {
+    Properties properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_EXECUTION, "session");
+    properties.put("failing.command.0", "false");
+    properties.put("failing.command.1", "echo -n \"never\"");
+    properties.put("working.command", "echo -n \"working\"");
+    try (CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties))) {
+      try {
+        vcs.commandLineAction("failing.command", new HashMap<String, String>(), temporaryDir);
+        fail();
+      } catch (VcsException expected) {
+        assertEquals("Command [false] failed.", expected.getMessage());
+      }
+      verify(vcs, times(1)).executeCommand(any(Executor.class),any(CommandLine.class));
+      assertEquals("working", vcs.commandLineAction("working.command", new HashMap<String, String>(), temporaryDir));
+    }
+  }
+
+  @Test
+  public void commandLineActionSessionTimeout() throws Exception {
+    Properties properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_EXECUTION, "session");
+    properties.put(VCS_COMMAND_LINE_TIMEOUT, "200");
+    properties.put("slow.command", "sleep 10");
+    properties.put("working.command", "echo -n \"working\"");
+    try (CommandLineVCS vcs = new CommandLineVCS(properties)) {
+      long start = System.currentTimeMillis();
+      try {
+        vcs.commandLineAction("slow.command", new HashMap<String, String>(), temporaryDir);
+        fail();
+      } catch (VcsException expected) {
+        assertTrue(System.currentTimeMillis() - start < 5000);
+      }
+      assertEquals("working", vcs.commandLineAction("working.command", new HashMap<String, String>(), temporaryDir));
+    }
+  }
+
+  @Test
+  public void commandLineActionStepTimeout() throws Exception {
+    Properties properties = new Properties();
+    properties.put("slow.command.0", "echo -n \"started\"");
+    properties.put("slow.command.1", "sleep 10");
+    properties.put("slow.command.1.timeout", "200");
+    CommandLineVCS vcs = new CommandLineVCS(properties);
+    long start = System.currentTimeMillis();
+    try {
+      vcs.commandLineAction("slow.command", new HashMap<String, String>(), temporaryDir);
+      fail();
+    } catch (VcsException expected) {
+      assertTrue(expected.getMessage().contains("timed out"));
+      assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+  }
+
+  @Test
+  public void commandLineActionTimeBudget() throws Exception {
+    Properties properties = new Properties();
+    properties.put("slow.command.0", "sleep 0.3");
+    properties.put("slow.command.1", "sleep 0.3");
+    properties.put("slow.command.2", "echo -n \"never\"");
+    properties.put("slow.command.timeout", "500");
+    CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties));
+    long start = System.currentTimeMillis();
+    try {
+      vcs.commandLineAction("slow.command", new HashMap<String, String>(), temporaryDir);
+      fail();
+    } catch (VcsException expected) {
+      assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+    verify(vcs, times(2)).executeCommand(any(Executor.class),any(CommandLine.class));
+  }
+
+  @Test
+  public void commandLineActionGroup() throws Exception {
+    Properties properties = new Properties();
+    properties.put("group.command.0", "printf first");
+    properties.put("group.command.1", "sleep 0.5");
+    properties.put("group.command.1.group", "a");
+    properties.put("group.command.2", "printf second");
+    properties.put("group.command.2.group", "a");
+    properties.put("group.command.3", "sleep 0.5");
+    properties.put("group.command.3.group", "a");
+    properties.put("group.command.4", "printf third");
+    try (CommandLineVCS vcs = new CommandLineVCS(properties)) {
+      assertEquals(3, vcs.getCommands("group.command").getStages().size());
+      long start = System.currentTimeMillis();
+      assertEquals("firstsecondthird", vcs.commandLineAction("group.command", new HashMap<String, String>(), temporaryDir));
+      assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+  }
+
+  @Test
+  public void commandLineActionGroupFailure() throws Exception {
+    Properties properties = new Properties();
+    properties.put("group.command.0", "sleep 10");
+    properties.put("group.command.0.group", "a");
+    properties.put("group.command.1", "false");
+    properties.put("group.command.1.group", "a");
+    properties.put("group.command.2", "printf never");
+    try (CommandLineVCS vcs = Mockito.spy(new CommandLineVCS(properties))) {
+      long start = System.currentTimeMillis();
+      try {
+        vcs.commandLineAction("group.command", new HashMap<String, String>(), temporaryDir);
+        fail();
+      } catch (VcsException expected) {
+        assertTrue(expected.getMessage().contains("false"));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+      }
+      verify(vcs, times(2)).executeCommand(any(Executor.class),any(CommandLine.class));
+    }
+  }
+
+  @Test
+  public void commandLineActionMetricsAborted() throws Exception {
+    Properties properties = new Properties();
+    properties.put("group.command.0", "sleep 10");
+    properties.put("group.command.0.group", "a");
+    properties.put("group.command.1", "timeout 0.5 sleep 10");
+    properties.put("group.command.1.group", "a");
+    List<CommandExecution> executions = new CopyOnWriteArrayList<>();
+    try (CommandLineVCS vcs = new CommandLineVCS(properties)) {
+      vcs.addMetricsListener(new CommandMetricsListener() {
+        @Override
+        public void commandExecuted(CommandExecution execution) {
+          executions.add(execution);
+        }
+
+        @Override
+        public void actionCompleted(String action, long wallTimeMillis, boolean succeeded) {
+        }
+      });
+      try {
+        vcs.commandLineAction("group.command", new HashMap<String, String>(), temporaryDir);
+        fail();
+      } catch (VcsException expected) {
+      }
+    }
+    assertEquals(2, executions.size());
+    for (CommandExecution execution : executions) {
+      // The sibling killed because the other failed wasn't too slow; neither command timed out.
+      assertEquals("group.command.0".equals(execution.getStep()), execution.isAborted());
+      assertFalse(execution.isTimedOut());
+    }
+  }
+
+  @Test
+  public void commandLineActionMetrics() throws Exception {
+    Properties properties = new Properties();
+    properties.put("metrics.command.0", "echo -n \"output\"");
+    properties.put("metrics.command.1", "sleep 10");
+    properties.put("metrics.command.1.timeout", "200");
+    CommandLineVCS vcs = new CommandLineVCS(properties);
+    List<CommandExecution> executions = new ArrayList<>();
+    List<String> actions = new ArrayList<>();
+    vcs.addMetricsListener(new CommandMetricsListener() {
+      @Override
+      public void commandExecuted(CommandExecution execution) {
+        executions.add(execution);
+      }
+
+      @Override
+      public void actionCompleted(String action, long wallTimeMillis, boolean succeeded) {
+        actions.add(action + ":" + succeeded);
+      }
+    });
+    try {
+      vcs.commandLineAction("metrics.command", new HashMap<String, String>(), temporaryDir);
+      fail();
+    } catch (VcsException expected) {
+
+    }
+    assertEquals(2, executions.size());
+    assertEquals("metrics.command.0", executions.get(0).getStep());
+    assertEquals("metrics.command", executions.get(0).getAction());
+    assertEquals(0, executions.get(0).getExitValue());
+    assertEquals(6, executions.get(0).getOutputBytes());
+    assertTrue(executions.get(0).isSucceeded());
+    assertTrue(executions.get(0).getSpawnLatencyMillis() >= 0);
+    assertTrue(executions.get(1).isTimedOut());
+    assertFalse(executions.get(1).isAborted());
+    assertFalse(executions.get(1).isSucceeded());
+    assertEquals(Arrays.asList("metrics.command:false"), actions);
+  }
+
+  @Test
+  public void commandLineActionJmxMetrics() throws Exception {
+    Properties properties = new Properties();
+    properties.put(VCS_COMMAND_LINE_METRICS_JMX, "true");
+    properties.put("jmx.command.0", "echo -n \"output\"");
+    properties.put("jmx.command.1", "false");
+    CommandLineVCS vcs = new CommandLineVCS(properties);
+    CommandMetrics.jmx().reset();
+    vcs.commandLineAction("jmx.command.0", new HashMap<String, String>(), temporaryDir);
+    try {
+      vcs.commandLineAction("jmx.command", new HashMap<String, String>(), temporaryDir);
+      fail();
+    } catch (VcsException expected) {
+
+    }
+    assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(CommandMetricsMXBean.OBJECT_NAME)));
+    assertEquals(1, CommandMetrics.jmx().getActions().get("jmx.command").getFailures());
+    assertEquals(2, CommandMetrics.jmx().getSteps().get("jmx.command.0").getCount());
+    assertEquals(12, CommandMetrics.jmx().getSteps().get("jmx.command.0").getOutputBytes());
+    assertEquals(1, CommandMetrics.jmx().getSteps().get("jmx.command.1").getFailures());
+  }
+
   @Test
   public void getImplementationName() throws Exception {
     CommandLineVCS vcs = new CommandLineVCS();
@@ -323,6 +966,19 @@ public class CommandLineVCSTest extends CommandLineVCSCase {
     assertTrue(keys.contains("file.2"));
   }
 
+  @Test
+  public void getRepeatedKeysOrdered() throws Exception {
+    CommandLineVCS vcs = new CommandLineVCS();
+    Map<String, String> map = new HashMap<>();
+    for (int i = 0; i < 12; i++) {
+      map.put("file." + i, "file" + i);
+    }
+    List<String> keys = vcs.getRepeatedKeys(map,"file");
+    assertEquals(12, keys.size());
+    assertEquals("file.2", keys.get(2));
+    assertEquals("file.11", keys.get(11));
+  }
+
   private static void assertEqualsIgnoreCase(String first, String second) {
     assertEquals(first.toUpperCase(), second.toUpperCase());
   }
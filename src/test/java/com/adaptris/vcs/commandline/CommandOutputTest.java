@@ -0,0 +1,64 @@
+package com.adaptris.vcs.commandline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class CommandOutputTest {
+
+  @Test
+  public void retainsEverythingUnderLimit() throws Exception {
+    try (CommandOutput output = new CommandOutput(1024, Collections.<CommandOutputListener>emptyList(), LoggerFactory.getLogger(getClass()))) {
+      output.write("hello ".getBytes(StandardCharsets.UTF_8));
+      output.write("world".getBytes(StandardCharsets.UTF_8));
+      assertEquals("hello world", output.toString());
+      assertFalse(output.isTruncated());
+      assertEquals(11, output.getTotalBytes());
+    }
+  }
+
+  @Test
+  public void retainsTail() throws Exception {
+    try (CommandOutput output = new CommandOutput(10, Collections.<CommandOutputListener>emptyList(), LoggerFactory.getLogger(getClass()))) {
+      for (int i = 0; i < 100; i++) {
+        output.write(String.valueOf(i % 10).getBytes(StandardCharsets.UTF_8));
+      }
+      assertEquals("0123456789", output.toString());
+      output.write("abc".getBytes(StandardCharsets.UTF_8));
+      assertEquals("3456789abc", output.toString());
+      output.write("0123456789ABCDEF".getBytes(StandardCharsets.UTF_8));
+      assertEquals("6789ABCDEF", output.toString());
+      assertTrue(output.isTruncated());
+      assertEquals(119, output.getTotalBytes());
+    }
+  }
+
+  @Test
+  public void emitsLines() throws Exception {
+    final List<String> lines = new ArrayList<>();
+    CommandOutputListener listener = (command, line) -> lines.add(command + ":" + line);
+    try (CommandOutput output = new CommandOutput(10, Collections.singletonList(listener), LoggerFactory.getLogger(getClass()))) {
+      output.startCommand("first");
+      output.write("line1\r\nline".getBytes(StandardCharsets.UTF_8));
+      output.write("2\n\n10%\r".getBytes(StandardCharsets.UTF_8));
+      output.write("100%".getBytes(StandardCharsets.UTF_8));
+      output.startCommand("second");
+      output.write("line3".getBytes(StandardCharsets.UTF_8));
+      output.endCommand();
+    }
+    assertEquals(5, lines.size());
+    assertEquals("first:line1", lines.get(0));
+    assertEquals("first:line2", lines.get(1));
+    assertEquals("first:10%", lines.get(2));
+    assertEquals("first:100%", lines.get(3));
+    assertEquals("second:line3", lines.get(4));
+  }
+}
@@ -0,0 +1,64 @@
+package com.adaptris.vcs.commandline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.exec.CommandLine;
+import org.junit.Test;
+
+public class CommandTemplateTest {
+
+  private static final String[] COMMANDS = {
+      "git init ${vcs.workingcopy.url}",
+      "git commit -m \"${vcs.commit.message}\"",
+      "git remote add --no-tags origin ${vcs.remote.repo.url}",
+      "echo -n \"revision comment\"",
+      "cp ../scm-sparse-checkout .git/info/sparse-checkout",
+      "svn log -l ${vcs.limit} --username=${user} ${unknown}",
+      "echo '${vcs.revision}' prefix-${vcs.revision}-suffix ${vcs.revision}${vcs.limit}",
+      "echo \"$HOME\" a$b",
+  };
+
+  @Test
+  public void rendersLikeCommandLine() throws Exception {
+    Map<String, String> substitutions = new HashMap<>();
+    substitutions.put("vcs.workingcopy.url", "/tmp/working copy");
+    substitutions.put("vcs.commit.message", "a 'quoted' message");
+    substitutions.put("vcs.remote.repo.url", "https://example.com/repo.git");
+    substitutions.put("vcs.limit", "10");
+    substitutions.put("vcs.revision", "master");
+    substitutions.put("user", "me");
+    for (String command : COMMANDS) {
+      CommandLine expected = CommandLine.parse(command);
+      expected.setSubstitutionMap(substitutions);
+      assertArrayEquals(command, expected.toStrings(), CommandTemplate.compile(command).toCommandLine(substitutions).toStrings());
+    }
+  }
+
+  @Test
+  public void references() throws Exception {
+    CommandTemplate template = CommandTemplate.compile("git add ${vcs.local.file} --prefix=${vcs.limit}");
+    assertTrue(template.references("vcs.local.file"));
+    assertTrue(template.references("vcs.limit"));
+    assertFalse(template.references("vcs.local.files"));
+  }
+
+  @Test
+  public void expandsList() throws Exception {
+    CommandTemplate template = CommandTemplate.compile("git add -- ${vcs.local.files} x${vcs.local.files}");
+    CommandLine commandLine = template.toCommandLine(new HashMap<String, String>(), "vcs.local.files",
+        Arrays.asList("file1", "file 2"));
+    assertEquals("[git, add, --, file1, \"file 2\", x${vcs.local.files}]", Arrays.toString(commandLine.toStrings()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unbalancedQuotes() throws Exception {
+    CommandTemplate.compile("echo \"unbalanced");
+  }
+}
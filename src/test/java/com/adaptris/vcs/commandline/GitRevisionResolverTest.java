@@ -0,0 +1,93 @@
+package com.adaptris.vcs.commandline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GitRevisionResolverTest {
+
+  private static final String REVISION = "0123456789abcdef0123456789abcdef01234567";
+  private static final String OTHER_REVISION = "89abcdef0123456789abcdef0123456789abcdef";
+
+  private File workingCopy;
+  private File gitDir;
+  private final GitRevisionResolver resolver = new GitRevisionResolver();
+
+  @Before
+  public void setUp() throws Exception {
+    workingCopy = Files.createTempDirectory("resolver").toFile();
+    gitDir = new File(workingCopy, ".git");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteQuietly(workingCopy);
+  }
+
+  @Test
+  public void looseRef() throws Exception {
+    write(gitDir, "HEAD", "ref: refs/heads/master\n");
+    write(gitDir, "refs/heads/master", REVISION + "\n");
+    assertEquals(REVISION, resolver.localRevision(workingCopy));
+  }
+
+  @Test
+  public void packedRef() throws Exception {
+    write(gitDir, "HEAD", "ref: refs/heads/master\n");
+    write(gitDir, "packed-refs", "# pack-refs with: peeled fully-peeled sorted\n"
+        + OTHER_REVISION + " refs/heads/develop\n"
+        + REVISION + " refs/heads/master\n"
+        + "^" + OTHER_REVISION + "\n");
+    assertEquals(REVISION, resolver.localRevision(workingCopy));
+    // A loose ref is newer than the packed one.
+    write(gitDir, "refs/heads/master", OTHER_REVISION);
+    assertEquals(OTHER_REVISION, resolver.localRevision(workingCopy));
+  }
+
+  @Test
+  public void detachedHead() throws Exception {
+    write(gitDir, "HEAD", REVISION);
+    assertEquals(REVISION, resolver.localRevision(workingCopy));
+  }
+
+  @Test
+  public void linkedWorktree() throws Exception {
+    File repository = new File(workingCopy, "repository.git");
+    File worktreeGitDir = new File(repository, "worktrees/wc");
+    File worktree = new File(workingCopy, "wc");
+    write(worktree, ".git", "gitdir: " + worktreeGitDir.getAbsolutePath() + "\n");
+    write(worktreeGitDir, "HEAD", "ref: refs/heads/feature\n");
+    write(worktreeGitDir, "commondir", "../..\n");
+    write(repository, "refs/heads/feature", REVISION);
+    assertEquals(REVISION, resolver.localRevision(worktree));
+  }
+
+  @Test
+  public void unresolvable() throws Exception {
+    assertNull(resolver.localRevision(workingCopy));
+    // Unborn branch.
+    write(gitDir, "HEAD", "ref: refs/heads/master\n");
+    assertNull(resolver.localRevision(workingCopy));
+    // Not a revision.
+    write(gitDir, "HEAD", "nonsense");
+    assertNull(resolver.localRevision(workingCopy));
+    // Refers to itself.
+    write(gitDir, "HEAD", "ref: HEAD");
+    assertNull(resolver.localRevision(workingCopy));
+  }
+
+  private static void write(File dir, String name, String content) throws IOException {
+    File file = new File(dir, name);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,74 @@
+package com.adaptris.vcs.commandline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+  private static RetryPolicy policy(String... attributes) {
+    Properties properties = new Properties();
+    properties.put("action", "echo");
+    for (int i = 0; i < attributes.length; i += 2) {
+      properties.put("action." + attributes[i], attributes[i + 1]);
+    }
+    return RetryPolicy.of(CommandSequence.compile(properties, "action"));
+  }
+
+  @Test
+  public void defaults() {
+    RetryPolicy policy = policy();
+    assertEquals(1, policy.getAttempts());
+    assertFalse(policy.isHedged());
+    assertEquals(-1, policy.hedgeAfter(new LatencyWindow()));
+  }
+
+  @Test
+  public void retryable() {
+    assertTrue(policy().isRetryable(1));
+    assertFalse(policy().isRetryable(null));
+    RetryPolicy policy = policy("retry.exit.codes", "128,255");
+    assertTrue(policy.isRetryable(128));
+    assertFalse(policy.isRetryable(1));
+  }
+
+  @Test
+  public void delay() {
+    RetryPolicy policy = policy("retry.attempts", "5", "retry.backoff", "100", "retry.backoff.max", "300");
+    assertEquals(5, policy.getAttempts());
+    assertBetween(50, 100, policy.delay(1));
+    assertBetween(100, 200, policy.delay(2));
+    assertBetween(150, 300, policy.delay(3));
+    assertBetween(150, 300, policy.delay(10));
+  }
+
+  @Test
+  public void hedgeAfterPercentile() {
+    RetryPolicy policy = policy("hedge.after", "500", "hedge.percentile", "90");
+    assertTrue(policy.isHedged());
+    LatencyWindow latencies = new LatencyWindow();
+    assertEquals(500, policy.hedgeAfter(latencies));
+    for (int i = 1; i <= 100; i++) {
+      latencies.record(i);
+    }
+    assertEquals(90, policy.hedgeAfter(latencies));
+  }
+
+  @Test
+  public void latencyWindowKeepsRecentSamples() {
+    LatencyWindow latencies = new LatencyWindow();
+    assertEquals(-1, latencies.percentile(50));
+    for (int i = 0; i < 1000; i++) {
+      latencies.record(i < 500 ? 10000 : 10);
+    }
+    assertEquals(10, latencies.percentile(100));
+  }
+
+  private static void assertBetween(long min, long max, long value) {
+    assertTrue(String.format("%d not in [%d, %d]", value, min, max), value >= min && value <= max);
+  }
+}
@@ -0,0 +1,115 @@
+package com.adaptris.vcs.commandline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.adaptris.core.management.vcs.VcsException;
+
+public class RevisionCacheTest {
+
+  @Test
+  public void remoteCachedUntilExpired() throws Exception {
+    AtomicInteger lookups = new AtomicInteger();
+    try (RevisionCache cache = new RevisionCache(200, null, "CommandLine", LoggerFactory.getLogger(getClass()))) {
+      assertEquals("1", cache.remote("key", () -> String.valueOf(lookups.incrementAndGet())));
+      assertEquals("1", cache.remote("key", () -> String.valueOf(lookups.incrementAndGet())));
+      assertEquals("2", cache.remote("other", () -> String.valueOf(lookups.incrementAndGet())));
+      Thread.sleep(300);
+      assertEquals("3", cache.remote("key", () -> String.valueOf(lookups.incrementAndGet())));
+    }
+  }
+
+  @Test
+  public void remoteSingleFlight() throws Exception {
+    AtomicInteger lookups = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try (RevisionCache cache = new RevisionCache(60000, null, "CommandLine", LoggerFactory.getLogger(getClass()))) {
+      RevisionCache.Lookup slow = () -> {
+        lookups.incrementAndGet();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new VcsException(e);
+        }
+        return "revision";
+      };
+      Future<?>[] results = new Future<?>[4];
+      for (int i = 0; i < results.length; i++) {
+        results[i] = executor.submit(() -> cache.remote("key", slow));
+      }
+      Thread.sleep(200);
+      release.countDown();
+      for (Future<?> result : results) {
+        assertEquals("revision", result.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(1, lookups.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void remoteFailureNotCached() throws Exception {
+    try (RevisionCache cache = new RevisionCache(60000, null, "CommandLine", LoggerFactory.getLogger(getClass()))) {
+      try {
+        cache.remote("key", () -> {
+          throw new VcsException("failed");
+        });
+        fail();
+      } catch (VcsException expected) {
+
+      }
+      assertEquals("revision", cache.remote("key", () -> "revision"));
+    }
+  }
+
+  @Test
+  public void localInvalidatedByChange() throws Exception {
+    File workingCopy = Files.createTempDirectory("revision-cache").toFile();
+    File heads = new File(workingCopy, ".git/refs/heads");
+    heads.mkdirs();
+    AtomicInteger lookups = new AtomicInteger();
+    RevisionCache.Lookup lookup = () -> String.valueOf(lookups.incrementAndGet());
+    try (RevisionCache cache = new RevisionCache(0, ".git", "CommandLine", LoggerFactory.getLogger(getClass()))) {
+      assertEquals("1", cache.local(workingCopy, lookup));
+      assertEquals("1", cache.local(workingCopy, lookup));
+      Files.write(new File(heads, "master").toPath(), "abc123".getBytes(StandardCharsets.US_ASCII));
+      long deadline = System.currentTimeMillis() + 10000;
+      while ("1".equals(cache.local(workingCopy, lookup)) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+      assertEquals("2", cache.local(workingCopy, lookup));
+      cache.invalidate(workingCopy);
+      assertEquals("3", cache.local(workingCopy, lookup));
+    } finally {
+      FileUtils.deleteQuietly(workingCopy);
+    }
+  }
+
+  @Test
+  public void localNotCachedWithoutMetadata() throws Exception {
+    File workingCopy = Files.createTempDirectory("revision-cache").toFile();
+    AtomicInteger lookups = new AtomicInteger();
+    try (RevisionCache cache = new RevisionCache(0, ".git", "CommandLine", LoggerFactory.getLogger(getClass()))) {
+      assertEquals("1", cache.local(workingCopy, () -> String.valueOf(lookups.incrementAndGet())));
+      assertEquals("2", cache.local(workingCopy, () -> String.valueOf(lookups.incrementAndGet())));
+    } finally {
+      FileUtils.deleteQuietly(workingCopy);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package com.adaptris.vcs.commandline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.adaptris.core.management.vcs.VcsException;
+
+public class UpdatePollerTest {
+
+  @Test
+  public void delay() {
+    try (UpdatePoller poller = new UpdatePoller(() -> {}, 100, 0, 500, "CommandLine", LoggerFactory.getLogger(getClass()))) {
+      assertEquals(100, poller.delay(0));
+      assertEquals(200, poller.delay(1));
+      assertEquals(400, poller.delay(2));
+      assertEquals(500, poller.delay(3));
+      assertEquals(500, poller.delay(100));
+    }
+  }
+
+  @Test
+  public void pollsRepeatedly() throws Exception {
+    CountDownLatch polls = new CountDownLatch(3);
+    try (UpdatePoller poller = new UpdatePoller(polls::countDown, 20, 10, 200, "CommandLine", LoggerFactory.getLogger(getClass()))) {
+      poller.start();
+      assertTrue(polls.await(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void backsOffOnFailure() throws Exception {
+    AtomicInteger polls = new AtomicInteger();
+    try (UpdatePoller poller = new UpdatePoller(() -> {
+      polls.incrementAndGet();
+      throw new VcsException("failed");
+    }, 50, 0, 10000, "CommandLine", LoggerFactory.getLogger(getClass()))) {
+      poller.start();
+      // 50, 100, 200, 400 ... so only a handful of attempts in a second.
+      Thread.sleep(1000);
+    }
+    assertTrue(polls.get() >= 2 && polls.get() <= 5);
+  }
+}
@@ -0,0 +1,106 @@
+package com.adaptris.vcs.commandline;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.adaptris.core.management.vcs.VcsException;
+
+public class WorkingCopyLocksTest {
+
+  private File lockDirectory;
+  private File workingCopy;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws Exception {
+    lockDirectory = Files.createTempDirectory("locks").toFile();
+    workingCopy = Files.createTempDirectory("working-copy").toFile();
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    FileUtils.deleteQuietly(lockDirectory);
+    FileUtils.deleteQuietly(workingCopy);
+  }
+
+  @Test
+  public void sharedLocks() throws Exception {
+    WorkingCopyLocks locks = new WorkingCopyLocks(lockDirectory, 200);
+    WorkingCopyLocks.Lease lease = locks.lock(workingCopy, true);
+    try {
+      executor.submit(() -> {
+        locks.lock(workingCopy, true).close();
+        return null;
+      }).get(5, TimeUnit.SECONDS);
+    } finally {
+      lease.close();
+    }
+  }
+
+  @Test
+  public void exclusiveLockTimesOut() throws Exception {
+    WorkingCopyLocks locks = new WorkingCopyLocks(lockDirectory, 200);
+    WorkingCopyLocks.Lease lease = locks.lock(workingCopy, true);
+    try {
+      executor.submit(() -> {
+        locks.lock(workingCopy, false).close();
+        return null;
+      }).get(5, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof VcsException);
+    } finally {
+      lease.close();
+    }
+    // Still usable afterwards.
+    locks.lock(workingCopy, false).close();
+  }
+
+  @Test
+  public void exclusiveLockWaits() throws Exception {
+    WorkingCopyLocks locks = new WorkingCopyLocks(lockDirectory, 5000);
+    Future<?> writer;
+    WorkingCopyLocks.Lease lease = locks.lock(workingCopy, false);
+    try {
+      writer = executor.submit(() -> {
+        locks.lock(workingCopy, false).close();
+        return null;
+      });
+      Thread.sleep(200);
+      assertFalse(writer.isDone());
+    } finally {
+      lease.close();
+    }
+    writer.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void workingCopiesAreIndependent() throws Exception {
+    WorkingCopyLocks locks = new WorkingCopyLocks(lockDirectory, 200);
+    WorkingCopyLocks.Lease lease = locks.lock(workingCopy, true);
+    try {
+      // Whatever their paths hash to, reading one working copy doesn't stop this thread writing another.
+      for (int i = 0; i < 128; i++) {
+        locks.lock(new File(workingCopy.getParentFile(), workingCopy.getName() + "-" + i), false).close();
+      }
+    } finally {
+      lease.close();
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package com.adaptris.vcs.commandline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorkingCopySnapshotTest {
+
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("snapshot").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    FileUtils.deleteQuietly(directory);
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    File workingCopy = new File(directory, "working-copy");
+    write(new File(workingCopy, "adapter.xml"), "<adapter/>");
+    write(new File(workingCopy, ".git/refs/heads/master"), "abc123");
+    File script = new File(workingCopy, "bin/start.sh");
+    write(script, "#!/bin/sh");
+    script.setExecutable(true);
+    new File(workingCopy, "empty").mkdirs();
+    File snapshot = new File(directory, "snapshots/working-copy.zip");
+    assertNull(WorkingCopySnapshot.revision(snapshot));
+
+    WorkingCopySnapshot.write(workingCopy, snapshot, "abc123");
+    assertEquals("abc123", WorkingCopySnapshot.revision(snapshot));
+
+    File restored = new File(directory, "restored");
+    assertEquals("abc123", WorkingCopySnapshot.restore(snapshot, restored));
+    assertEquals("<adapter/>", read(new File(restored, "adapter.xml")));
+    assertEquals("abc123", read(new File(restored, ".git/refs/heads/master")));
+    assertTrue(new File(restored, "bin/start.sh").canExecute());
+    assertFalse(new File(restored, "adapter.xml").canExecute());
+    assertTrue(new File(restored, "empty").isDirectory());
+    // Nothing left behind but the snapshot.
+    assertEquals(1, new File(directory, "snapshots").list().length);
+  }
+
+  @Test
+  public void symbolicLinks() throws Exception {
+    File workingCopy = new File(directory, "working-copy");
+    write(new File(workingCopy, "config/adapter.xml"), "<adapter/>");
+    Files.createSymbolicLink(new File(workingCopy, "adapter.xml").toPath(), Paths.get("config/adapter.xml"));
+    Files.createSymbolicLink(new File(workingCopy, "current").toPath(), Paths.get("config"));
+    File snapshot = new File(directory, "working-copy.zip");
+    WorkingCopySnapshot.write(workingCopy, snapshot, "abc123");
+
+    File restored = new File(directory, "restored");
+    WorkingCopySnapshot.restore(snapshot, restored);
+    assertTrue(Files.isSymbolicLink(new File(restored, "adapter.xml").toPath()));
+    assertEquals(Paths.get("config/adapter.xml"), Files.readSymbolicLink(new File(restored, "adapter.xml").toPath()));
+    assertEquals("<adapter/>", read(new File(restored, "adapter.xml")));
+    assertTrue(Files.isSymbolicLink(new File(restored, "current").toPath()));
+    assertEquals(Paths.get("config"), Files.readSymbolicLink(new File(restored, "current").toPath()));
+    assertFalse(Files.isSymbolicLink(new File(restored, "config").toPath()));
+  }
+
+  @Test
+  public void entryThroughSymbolicLink() throws Exception {
+    File outside = new File(directory, "outside");
+    outside.mkdirs();
+    File snapshot = new File(directory, "evil.zip");
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(snapshot.toPath()))) {
+      ZipEntry link = new ZipEntry("link");
+      link.setComment("l");
+      zip.putNextEntry(link);
+      zip.write(outside.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+      zip.closeEntry();
+      zip.putNextEntry(new ZipEntry("link/escaped"));
+      zip.write("x".getBytes(StandardCharsets.UTF_8));
+      zip.closeEntry();
+    }
+    try {
+      WorkingCopySnapshot.restore(snapshot, new File(directory, "restored"));
+      fail();
+    } catch (IOException expected) {
+
+    }
+    assertFalse(new File(outside, "escaped").exists());
+  }
+
+  @Test
+  public void entryOutsideWorkingCopy() throws Exception {
+    File snapshot = new File(directory, "evil.zip");
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(snapshot.toPath()))) {
+      zip.putNextEntry(new ZipEntry("../escaped"));
+      zip.write("x".getBytes(StandardCharsets.UTF_8));
+      zip.closeEntry();
+    }
+    try {
+      WorkingCopySnapshot.restore(snapshot, new File(directory, "restored"));
+      fail();
+    } catch (IOException expected) {
+
+    }
+    assertFalse(new File(directory, "escaped").exists());
+  }
+
+  private static void write(File file, String content) throws IOException {
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+  }
+}